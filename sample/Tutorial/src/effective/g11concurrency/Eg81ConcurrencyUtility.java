@@ -29,6 +29,7 @@ public class Eg81ConcurrencyUtility {
     }
 
     // Concurrent canonicalizing map atop ConcurrentMap - faster!
+    // It never evicts; StringDedupTable is a bounded alternative that also interns from byte[] slices.
     public static String intern2(String s) {
         String result = map.get(s);
         if (result == null) {
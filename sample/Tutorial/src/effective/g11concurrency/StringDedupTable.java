@@ -0,0 +1,244 @@
+package effective.g11concurrency;
+
+import effective.g9programming.primitive.Hashing;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free string deduplication table for fields that repeat, such as parsed CSV columns.
+ *
+ * Eg81ConcurrencyUtility.intern2 keeps every string it ever saw, so a high-cardinality field grows
+ * its map without limit, and the caller must already have built the String it wants to replace.
+ * String.intern (see StringInternDemo) has the same unbounded table, in native memory. Here:
+ *   1. The table is set-associative, like a CPU cache: the hash picks a set of WAYS slots and the
+ *      string may live in any of them. A miss fills an empty slot or evicts a random one, so the
+ *      table never holds more than its capacity, and a value that stops recurring is soon replaced.
+ *      A string is only admitted the second time its hash is seen, recorded in a small array of
+ *      recent hashes, so unique fields such as ids and timestamps pass through without evicting
+ *      the values that do repeat.
+ *   2. Lookups take no locks and do no CAS. They read the set's slots from an AtomicReferenceArray
+ *      and compare against the query. Inserts are a lazySet, and a lost race costs only one
+ *      duplicate String. Strings are immutable, so a racing reader never sees a partial one.
+ *      The recent-hash array is a plain int[]: a torn race there changes only what is admitted.
+ *   3. The hash is String.hashCode's, computed once per query: a String brings its own cached hash,
+ *      and a char or byte slice is hashed in the same loop that would have copied it.
+ *   4. intern(CharSequence, start, end) and intern(byte[], offset, length) compare the slice with
+ *      the candidate in place and allocate a String only on a miss. Byte slices are UTF-8. Pure
+ *      ASCII ones, which are most CSV fields, are hashed and compared byte by byte; anything else
+ *      is decoded first.
+ * Weak references were the alternative way to bound the table. They cost an extra object per entry
+ * and reference processing in every GC, and still keep a string alive for as long as any record
+ * holds it, so this class uses eviction instead. Unlike String.intern, equal strings are only
+ * usually the same instance: compare them with equals, and use the table only to save memory.
+ */
+public class StringDedupTable {
+    private static final int WAYS = 4;
+
+    private final AtomicReferenceArray<String> slots;
+    private final int setMask;
+    private final int[] recentHashes;
+
+    /** A table holding up to about capacity strings, rounded up to a power of two. */
+    public StringDedupTable(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity: " + capacity);
+        int sets = Integer.highestOneBit(Math.max(1, (capacity - 1) / WAYS)) << 1;
+        slots = new AtomicReferenceArray<>(sets * WAYS);
+        setMask = sets - 1;
+        recentHashes = new int[sets * WAYS];
+    }
+
+    /** The canonical copy of s, which becomes s itself if no equal string is present. */
+    public String intern(String s) {
+        int base = base(s.hashCode());
+        for (int i = 0; i < WAYS; i++) {
+            String candidate = slots.get(base + i);
+            if (candidate == null)
+                break;
+            if (candidate.hashCode() == s.hashCode() && candidate.equals(s))
+                return candidate;
+        }
+        return insert(base, s.hashCode(), s);
+    }
+
+    /** The canonical copy of cs.subSequence(start, end), built only if absent. */
+    public String intern(CharSequence cs, int start, int end) {
+        if (start < 0 || end > cs.length() || start > end)
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + cs.length());
+        int h = 0;
+        for (int i = start; i < end; i++)
+            h = 31 * h + cs.charAt(i);
+        int base = base(h);
+        for (int i = 0; i < WAYS; i++) {
+            String candidate = slots.get(base + i);
+            if (candidate == null)
+                break;
+            if (candidate.hashCode() == h && regionEquals(candidate, cs, start, end))
+                return candidate;
+        }
+        return insert(base, h, cs.subSequence(start, end).toString());
+    }
+
+    /** The canonical copy of the UTF-8 string in bytes[offset, offset + length), decoded only if absent. */
+    public String intern(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length)
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array " + bytes.length);
+        int h = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            byte b = bytes[i];
+            if (b < 0)          // Not ASCII: hash and compare the decoded string instead
+                return intern(new String(bytes, offset, length, StandardCharsets.UTF_8));
+            h = 31 * h + b;
+        }
+        int base = base(h);
+        for (int i = 0; i < WAYS; i++) {
+            String candidate = slots.get(base + i);
+            if (candidate == null)
+                break;
+            if (candidate.hashCode() == h && regionEquals(candidate, bytes, offset, length))
+                return candidate;
+        }
+        return insert(base, h, new String(bytes, offset, length, StandardCharsets.ISO_8859_1));
+    }
+
+    /** Upper bound on the strings held. */
+    public int capacity() {
+        return slots.length();
+    }
+
+    private int base(int h) {
+        return (Hashing.mix(h) & setMask) * WAYS;
+    }
+
+    private String insert(int base, int h, String s) {
+        int recent = (h * 0x85EBCA6B >>> 7) & (recentHashes.length - 1);
+        if (recentHashes[recent] != h) {
+            recentHashes[recent] = h;       // First sighting: remember it, but do not evict for it
+            return s;
+        }
+        for (int i = 0; i < WAYS; i++) {
+            if (slots.get(base + i) == null) {
+                slots.lazySet(base + i, s);
+                return s;
+            }
+        }
+        slots.lazySet(base + ThreadLocalRandom.current().nextInt(WAYS), s);
+        return s;
+    }
+
+    private static boolean regionEquals(String s, CharSequence cs, int start, int end) {
+        if (s.length() != end - start)
+            return false;
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) != cs.charAt(start + i))
+                return false;
+        return true;
+    }
+
+    private static boolean regionEquals(String s, byte[] bytes, int offset, int length) {
+        if (s.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (s.charAt(i) != bytes[offset + i])
+                return false;
+        return true;
+    }
+
+    // Fields in the shape of MatcherDemo.test3's call records: a few fields per row are unique
+    private static final String[] STATES = {"CS_EXECUTE", "CS_EXCHANGE_MEDIA", "CS_HANGUP", "CS_ROUTING"};
+    private static final String[] DIRECTIONS = {"inbound", "outbound"};
+    private static final String[] CALLSTATES = {"ACTIVE", "RINGING", "HELD", "EARLY"};
+
+    static byte[] callRecords(int rows) {
+        SplittableRandom random = new SplittableRandom(81);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            int caller = 1000 + random.nextInt(50), callee = 1000 + random.nextInt(50);
+            String host = "172.16.65." + (200 + random.nextInt(4));
+            sb.append(Long.toHexString(random.nextLong())).append(',')           // uuid: unique
+                    .append(DIRECTIONS[random.nextInt(2)]).append(',')
+                    .append(1606293087L + i).append(',')                        // epoch: unique
+                    .append("sofia/internal/").append(caller).append('@').append(host).append(',')
+                    .append(STATES[random.nextInt(STATES.length)]).append(',')
+                    .append(caller).append(',').append(caller).append(',').append(host).append(',')
+                    .append(callee).append(',').append(caller).append('@').append(host).append(",,")
+                    .append(caller).append(',').append(CALLSTATES[random.nextInt(CALLSTATES.length)]).append(',')
+                    .append("Outbound Call,").append(callee).append(",SEND\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    interface FieldSink {
+        String field(byte[] data, int offset, int length);
+    }
+
+    /** Splits data into lines of comma-separated fields and keeps every field. */
+    static List<String[]> parse(byte[] data, FieldSink sink) {
+        List<String[]> rows = new ArrayList<>();
+        List<String> fields = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == ',' || data[i] == '\n') {
+                fields.add(sink.field(data, start, i - start));
+                start = i + 1;
+                if (data[i] == '\n') {
+                    rows.add(fields.toArray(new String[0]));
+                    fields.clear();
+                }
+            }
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("deprecation")    // Thread.threadId() is only in JDK 19+
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    static long retainedBytes(Runnable build) {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+        build.run();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory() - before;
+    }
+
+    static List<String[]> held;
+
+    static void measure(String name, byte[] data, FieldSink sink) {
+        for (int i = 0; i < 3; i++)
+            parse(data, sink);          // warmup
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        List<String[]> rows = parse(data, sink);
+        long nanos = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        long retained = retainedBytes(() -> held = parse(data, sink));
+        held = null;
+        System.out.format("%-32s %,8.0f ms %,8d MB allocated %,6d MB retained (%,d rows)%n",
+                name, nanos / 1e6, allocated >> 20, retained >> 20, rows.size());
+    }
+
+    // intern2's map was filled during the warmup, so its retained column leaves out the map, which
+    // by then holds every id and timestamp it has seen and never lets them go
+    public static void main(String[] args) {
+        byte[] data = callRecords(args.length > 0 ? Integer.parseInt(args[0]) : 300_000);
+        StringDedupTable table = new StringDedupTable(1 << 12);
+        measure("new String", data, (b, off, len) -> new String(b, off, len, StandardCharsets.UTF_8));
+        measure("new String + intern2", data,
+                (b, off, len) -> Eg81ConcurrencyUtility.intern2(new String(b, off, len, StandardCharsets.UTF_8)));
+        measure("StringDedupTable.intern(byte[])", data, table::intern);
+    }
+}
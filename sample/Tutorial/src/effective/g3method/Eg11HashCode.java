@@ -24,6 +24,16 @@ public class Eg11HashCode {
             return (short) val;
         }
 
+        public int areaCode() {
+            return areaCode;
+        }
+        public int prefix() {
+            return prefix;
+        }
+        public int lineNum() {
+            return lineNum;
+        }
+
         // NOTE: Don’t substitute another type for Object in the equals declaration.
         @Override public boolean equals(Object o) {
             if (o == this)
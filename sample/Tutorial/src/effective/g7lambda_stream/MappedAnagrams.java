@@ -0,0 +1,294 @@
+package effective.g7lambda_stream;
+
+import effective.g9programming.primitive.Hashing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Anagram groups of a dictionary too large for Eg45Stream.Anagrams, Anagrams2 or Anagrams3.
+ *
+ * Those read the words through Scanner or Files.lines, build a sorted String key per word and
+ * keep every word in a HashMap of TreeSets or groupingBy lists, so a multi-gigabyte word list means
+ * several objects per word and one thread doing all the work. Here:
+ *   1. The file is memory-mapped and cut into about four parts per core (1 MB to 256 MB each), each
+ *      ending at a newline, and a ForkJoin task splits the parts across the common pool.
+ *   2. Each word gets a 128-bit signature of its byte multiset: the sum over its bytes of two
+ *      random 64-bit values per byte value. Sums do not depend on order, so anagrams share a
+ *      signature, and no String or sorted key is built.
+ *   3. The first pass only counts words per signature, in an open-addressing table per part
+ *      (two long[] and an int[], no objects per entry). The tables are merged pairwise up the task tree.
+ *   4. A second pass over the mapped parts decodes only the words whose signature has at least
+ *      minGroupSize words, and so only those words become Strings.
+ *   5. Those candidates are grouped exactly by alphabetized word. This removes both hash collisions
+ *      and UTF-8 byte multisets that happen to match for different characters. The result is what
+ *      Anagrams prints.
+ */
+public class MappedAnagrams {
+    private static final long MIN_PART_BYTES = 1 << 20;
+    private static final long MAX_PART_BYTES = 1 << 28;
+    private static final long[] MIX_A = new long[256];
+    private static final long[] MIX_B = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x9E3779B97F4A7C15L);
+        for (int i = 0; i < 256; i++) {
+            MIX_A[i] = random.nextLong();
+            MIX_B[i] = random.nextLong();
+        }
+    }
+
+    /** The anagram groups in dictionary with at least minGroupSize distinct words, words sorted. */
+    public static List<Set<String>> groups(Path dictionary, int minGroupSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(dictionary, StandardOpenOption.READ)) {
+            long[] bounds = split(channel);
+            int parts = bounds.length - 1;
+            if (parts == 0)
+                return new ArrayList<>();
+            SignatureTable counts = ForkJoinPool.commonPool().invoke(new CountTask(channel, bounds, 0, parts));
+            List<String> candidates = ForkJoinPool.commonPool().invoke(
+                    new CollectTask(channel, bounds, 0, parts, counts, minGroupSize));
+            Map<String, Set<String>> exact = new HashMap<>();
+            for (String word : candidates)
+                exact.computeIfAbsent(alphabetize(word), (unused) -> new TreeSet<>()).add(word);
+            List<Set<String>> groups = new ArrayList<>();
+            for (Set<String> group : exact.values())
+                if (group.size() >= minGroupSize)
+                    groups.add(group);
+            return groups;
+        }
+    }
+
+    /** Part boundaries: bounds[i] to bounds[i + 1] is part i, and each part but the last ends after a newline. */
+    static long[] split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long partBytes = size / (4L * ForkJoinPool.getCommonPoolParallelism());
+        partBytes = Math.max(MIN_PART_BYTES, Math.min(MAX_PART_BYTES, partBytes));
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long at = 0;
+        while (size - at > partBytes) {
+            long pos = at + partBytes;
+            long cut = -1;
+            while (cut < 0 && pos < size) {
+                buf.clear();
+                int n = channel.read(buf, pos);
+                for (int i = 0; i < n && cut < 0; i++)
+                    if (buf.get(i) == '\n')
+                        cut = pos + i + 1;
+                pos += n;
+            }
+            if (cut < 0 || cut >= size)
+                break;
+            bounds.add(cut);
+            at = cut;
+        }
+        if (size > 0)
+            bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = bounds.get(i);
+        return result;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long[] bounds, int part) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, bounds[part], bounds[part + 1] - bounds[part]);
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b >= 0 && b <= ' ';          // Bytes of multi-byte UTF-8 characters are negative
+    }
+
+    /** Counts the words of one part by signature. */
+    static SignatureTable count(MappedByteBuffer buf) {
+        SignatureTable table = new SignatureTable();
+        int n = buf.limit();
+        int i = 0;
+        while (i < n) {
+            while (i < n && isSpace(buf.get(i)))
+                i++;
+            if (i == n)
+                break;
+            long a = 0, b = 0;
+            for (byte c; i < n && !isSpace(c = buf.get(i)); i++) {
+                a += MIX_A[c & 0xff];
+                b += MIX_B[c & 0xff];
+            }
+            table.add(a, b, 1);
+        }
+        return table;
+    }
+
+    /** Decodes the words of one part whose signature has at least minGroupSize words. */
+    static void collect(MappedByteBuffer buf, SignatureTable counts, int minGroupSize, List<String> out) {
+        int n = buf.limit();
+        int i = 0;
+        byte[] word = new byte[64];
+        while (i < n) {
+            while (i < n && isSpace(buf.get(i)))
+                i++;
+            if (i == n)
+                break;
+            int start = i;
+            long a = 0, b = 0;
+            for (byte c; i < n && !isSpace(c = buf.get(i)); i++) {
+                a += MIX_A[c & 0xff];
+                b += MIX_B[c & 0xff];
+            }
+            if (counts.get(a, b) >= minGroupSize) {
+                int len = i - start;
+                if (word.length < len)
+                    word = new byte[Math.max(len, word.length * 2)];
+                buf.get(start, word, 0, len);
+                out.add(new String(word, 0, len, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static String alphabetize(String s) {
+        char[] a = s.toCharArray();
+        Arrays.sort(a);
+        return new String(a);
+    }
+
+    /** Open-addressing map from 128-bit signature to word count, with linear probing. */
+    static final class SignatureTable {
+        private long[] sigA = new long[1 << 10];
+        private long[] sigB = new long[1 << 10];
+        private int[] counts = new int[1 << 10];      // 0 marks an empty slot
+        private int size;
+
+        void add(long a, long b, int count) {
+            int mask = counts.length - 1;
+            int slot = index(a, b) & mask;
+            while (counts[slot] != 0) {
+                if (sigA[slot] == a && sigB[slot] == b) {
+                    counts[slot] += count;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            sigA[slot] = a;
+            sigB[slot] = b;
+            counts[slot] = count;
+            if (++size * 2 > counts.length)
+                grow();
+        }
+
+        int get(long a, long b) {
+            int mask = counts.length - 1;
+            for (int slot = index(a, b) & mask; counts[slot] != 0; slot = (slot + 1) & mask)
+                if (sigA[slot] == a && sigB[slot] == b)
+                    return counts[slot];
+            return 0;
+        }
+
+        /** Adds every count of other to this table; the larger table should be this. */
+        SignatureTable merge(SignatureTable other) {
+            for (int slot = 0; slot < other.counts.length; slot++)
+                if (other.counts[slot] != 0)
+                    add(other.sigA[slot], other.sigB[slot], other.counts[slot]);
+            return this;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private static int index(long a, long b) {
+            return Hashing.mix(a ^ (b >>> 29));
+        }
+
+        private void grow() {
+            long[] oldA = sigA, oldB = sigB;
+            int[] oldCounts = counts;
+            sigA = new long[oldCounts.length * 2];
+            sigB = new long[oldCounts.length * 2];
+            counts = new int[oldCounts.length * 2];
+            size = 0;
+            for (int slot = 0; slot < oldCounts.length; slot++)
+                if (oldCounts[slot] != 0)
+                    add(oldA[slot], oldB[slot], oldCounts[slot]);
+        }
+    }
+
+    static final class CountTask extends RecursiveTask<SignatureTable> {
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int from, to;
+
+        CountTask(FileChannel channel, long[] bounds, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected SignatureTable compute() {
+            if (to - from == 1)
+                return count(map(channel, bounds, from));
+            int mid = (from + to) >>> 1;
+            CountTask left = new CountTask(channel, bounds, from, mid);
+            left.fork();
+            SignatureTable right = new CountTask(channel, bounds, mid, to).compute();
+            SignatureTable joined = left.join();
+            return joined.size() >= right.size() ? joined.merge(right) : right.merge(joined);
+        }
+    }
+
+    static final class CollectTask extends RecursiveTask<List<String>> {
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int from, to;
+        private final SignatureTable counts;
+        private final int minGroupSize;
+
+        CollectTask(FileChannel channel, long[] bounds, int from, int to, SignatureTable counts, int minGroupSize) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+            this.counts = counts;
+            this.minGroupSize = minGroupSize;
+        }
+
+        @Override
+        protected List<String> compute() {
+            if (to - from == 1) {
+                List<String> words = new ArrayList<>();
+                collect(map(channel, bounds, from), counts, minGroupSize, words);
+                return words;
+            }
+            int mid = (from + to) >>> 1;
+            CollectTask left = new CollectTask(channel, bounds, from, mid, counts, minGroupSize);
+            left.fork();
+            List<String> right = new CollectTask(channel, bounds, mid, to, counts, minGroupSize).compute();
+            List<String> words = left.join();
+            words.addAll(right);
+            return words;
+        }
+    }
+
+    // Same arguments and output as Eg45Stream.Anagrams: the dictionary file and the minimum group size
+    public static void main(String[] args) throws IOException {
+        Path dictionary = Paths.get(args[0]);
+        int minGroupSize = Integer.parseInt(args[1]);
+        for (Set<String> group : groups(dictionary, minGroupSize))
+            System.out.println(group.size() + ": " + group);
+    }
+}
@@ -0,0 +1,206 @@
+package effective.g7lambda_stream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Parallel search for Mersenne primes 2^p - 1, the real version of the commented-out Eg48StreamParallel.main.
+ *
+ * Stream.iterate(TWO, BigInteger::nextProbablePrime) cannot be split, so .parallel() on it gains
+ * nothing, and isProbablePrime(50) is the wrong test for numbers of this shape anyway. Here:
+ *   1. Candidate exponents p come from PrimeSieve (2^p - 1 can only be prime if p is).
+ *   2. A cheap trial-factoring pass drops p when 2^p - 1 has a small factor q. Any such factor has
+ *      the form 2kp + 1 and is 1 or 7 mod 8, so few q need a modPow check.
+ *   3. The survivors get the Lucas-Lehmer test, s <- s^2 - 2 mod 2^p - 1, p - 2 times, with
+ *      the reduction done by shift-and-add instead of division.
+ *   4. A RecursiveAction splits the exponent range across a ForkJoinPool, whose work stealing
+ *      balances the cost, which grows roughly as p^3.
+ *   5. Tests finish out of order; a reorder buffer releases results to the caller in ascending
+ *      exponent order as soon as every smaller exponent is done.
+ *   6. Every CHECKPOINT_MILLIS, the highest exponent below which everything is tested, and the
+ *      Mersenne primes found so far, are written atomically to the checkpoint file. A new search
+ *      with the same file resumes from there.
+ */
+public class MersenneSearch {
+    private static final long CHECKPOINT_MILLIS = 5_000;
+    private static final int TRIAL_FACTOR_K = 1 << 12;
+
+    private final int[] exponents;
+    private final Path checkpoint;
+    private final IntConsumer onMersenne;
+    private final List<Integer> found = new ArrayList<>();
+
+    // Reorder buffer, guarded by this
+    private final boolean[] done;
+    private final boolean[] prime;
+    private int next;
+    private int testedThrough;
+    private long lastCheckpoint = System.currentTimeMillis();
+
+    /**
+     * Prepares a search of all prime exponents up to maxExponent. onMersenne is called once per
+     * Mersenne prime exponent, in ascending order, including those restored from the checkpoint.
+     * checkpoint may be null.
+     */
+    public MersenneSearch(int maxExponent, Path checkpoint, IntConsumer onMersenne) throws IOException {
+        this.checkpoint = checkpoint;
+        this.onMersenne = onMersenne;
+        int resumeAfter = 1;
+        if (checkpoint != null && Files.exists(checkpoint)) {
+            for (String line : Files.readAllLines(checkpoint, StandardCharsets.UTF_8)) {
+                if (line.startsWith("tested="))
+                    resumeAfter = Integer.parseInt(line.substring(7).trim());
+                else if (line.startsWith("found=") && line.length() > 6)
+                    for (String p : line.substring(6).split(","))
+                        found.add(Integer.parseInt(p.trim()));
+            }
+        }
+        final int from = resumeAfter;
+        exponents = PrimeSieve.primes(maxExponent, false).filter(p -> p > from).mapToInt(p -> (int) p).toArray();
+        testedThrough = resumeAfter;
+        done = new boolean[exponents.length];
+        prime = new boolean[exponents.length];
+    }
+
+    /** Runs the search on pool and returns every Mersenne prime exponent found, in order. */
+    public List<Integer> run(ForkJoinPool pool) {
+        synchronized (this) {
+            for (int p : found)
+                onMersenne.accept(p);
+        }
+        pool.invoke(new Search(0, exponents.length));
+        synchronized (this) {
+            writeCheckpoint();
+            return new ArrayList<>(found);
+        }
+    }
+
+    private synchronized void tested(int i, boolean isPrime) {
+        done[i] = true;
+        prime[i] = isPrime;
+        while (next < exponents.length && done[next]) {
+            if (prime[next]) {
+                found.add(exponents[next]);
+                onMersenne.accept(exponents[next]);
+            }
+            testedThrough = exponents[next++];
+        }
+        if (System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_MILLIS)
+            writeCheckpoint();
+    }
+
+    private void writeCheckpoint() {
+        lastCheckpoint = System.currentTimeMillis();
+        if (checkpoint == null)
+            return;
+        StringBuilder sb = new StringBuilder("tested=").append(testedThrough).append("\nfound=");
+        for (int k = 0; k < found.size(); k++)
+            sb.append(k == 0 ? "" : ",").append(found.get(k));
+        sb.append('\n');
+        try {
+            Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private class Search extends RecursiveAction {
+        private final int from, to;
+
+        Search(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Search(from, mid), new Search(mid, to));
+                return;
+            }
+            if (from < to)
+                tested(from, isMersennePrime(exponents[from]));
+        }
+    }
+
+    /** True if 2^p - 1 is prime; p must be prime. */
+    public static boolean isMersennePrime(int p) {
+        if (p == 2)
+            return true;
+        return !hasSmallFactor(p) && lucasLehmer(p);
+    }
+
+    static boolean hasSmallFactor(int p) {
+        BigInteger mersenne = BigInteger.ONE.shiftLeft(p).subtract(BigInteger.ONE);
+        for (long k = 1; k <= TRIAL_FACTOR_K; k++) {
+            long q = 2 * k * p + 1;
+            if (q < 0 || q > Integer.MAX_VALUE)
+                return false;
+            int r = (int) (q & 7);
+            if (r != 1 && r != 7)
+                continue;
+            if (BigInteger.valueOf(q).compareTo(mersenne) >= 0)
+                return false;
+            if (BigInteger.TWO.modPow(BigInteger.valueOf(p), BigInteger.valueOf(q)).equals(BigInteger.ONE))
+                return true;
+        }
+        return false;
+    }
+
+    static boolean lucasLehmer(int p) {
+        BigInteger mersenne = BigInteger.ONE.shiftLeft(p).subtract(BigInteger.ONE);
+        BigInteger s = BigInteger.valueOf(4);
+        for (int i = 0; i < p - 2; i++) {
+            s = s.multiply(s).subtract(BigInteger.TWO);
+            // x mod 2^p - 1 == (x & (2^p - 1)) + (x >> p), repeated until it fits
+            while (s.bitLength() > p)
+                s = s.and(mersenne).add(s.shiftRight(p));
+            if (s.equals(mersenne))
+                s = BigInteger.ZERO;
+            if (s.signum() < 0)
+                s = s.add(mersenne);
+        }
+        return s.signum() == 0;
+    }
+
+    /**
+     * Prints Mersenne prime exponents up to args[0] (default 4500, enough for the first 20). With a
+     * checkpoint file as args[1] it resumes from, and saves to, that file; without one it also times
+     * the search with a single worker against the common pool.
+     */
+    public static void main(String[] args) throws IOException {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : 4500;
+        if (args.length > 1) {
+            new MersenneSearch(max, Paths.get(args[1]), p -> System.out.println("2^" + p + " - 1"))
+                    .run(ForkJoinPool.commonPool());
+            return;
+        }
+        ForkJoinPool single = new ForkJoinPool(1);
+        long start = System.nanoTime();
+        List<Integer> expected = new MersenneSearch(max, null, p -> { }).run(single);
+        long sequential = System.nanoTime() - start;
+        single.shutdown();
+
+        start = System.nanoTime();
+        List<Integer> found = new MersenneSearch(max, null, p -> System.out.println("2^" + p + " - 1"))
+                .run(ForkJoinPool.commonPool());
+        long parallel = System.nanoTime() - start;
+        if (!found.equals(expected))
+            throw new AssertionError(found + " != " + expected);
+        System.out.format("%d Mersenne primes; 1 worker %.0f ms, %d workers %.0f ms%n", found.size(),
+                sequential / 1e6, ForkJoinPool.commonPool().getParallelism(), parallel / 1e6);
+    }
+}
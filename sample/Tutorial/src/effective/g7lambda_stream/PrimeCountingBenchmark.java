@@ -0,0 +1,45 @@
+package effective.g7lambda_stream;
+
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Compares Eg48StreamParallel.pi2 with PrimeSieve's parallel segmented sieve and Meissel-Lehmer counting.
+ *
+ * pi2 runs only for the smaller sizes (it needs seconds for a million candidates); the sieve and
+ * Lehmer columns continue to larger n, and the speedup column is pi2's time over the sieve's.
+ */
+public class PrimeCountingBenchmark {
+    private static final long[] SIZES = {100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L};
+    private static final long PI2_LIMIT = 1_000_000L;
+    private static final int WARMUP = 2;
+
+    static long[] time(LongUnaryOperator pi, long n) {
+        long count = 0, nanos = 0;
+        for (int i = 0; i <= WARMUP; i++) {
+            long start = System.nanoTime();
+            count = pi.applyAsLong(n);
+            nanos = System.nanoTime() - start;
+        }
+        return new long[]{count, nanos};
+    }
+
+    public static void main(String[] args) {
+        System.out.format("%14s %14s %12s %12s %12s %9s%n", "n", "pi(n)", "pi2 ms", "sieve ms", "lehmer ms", "speedup");
+        for (long n : SIZES) {
+            long[] sieve = time(PrimeSieve::piSieve, n);
+            long[] lehmer = time(m -> new PrimeSieve.Lehmer(m).pi(m), n);
+            if (sieve[0] != lehmer[0])
+                throw new AssertionError("sieve and Lehmer disagree at " + n);
+            if (n <= PI2_LIMIT) {
+                long[] pi2 = time(Eg48StreamParallel::pi2, n);
+                if (pi2[0] != sieve[0])
+                    throw new AssertionError("pi2 and sieve disagree at " + n);
+                System.out.format("%,14d %,14d %12.1f %12.1f %12.1f %8.0fx%n", n, sieve[0],
+                        pi2[1] / 1e6, sieve[1] / 1e6, lehmer[1] / 1e6, (double) pi2[1] / sieve[1]);
+            } else {
+                System.out.format("%,14d %,14d %12s %12.1f %12.1f %9s%n", n, sieve[0],
+                        "-", sieve[1] / 1e6, lehmer[1] / 1e6, "-");
+            }
+        }
+    }
+}
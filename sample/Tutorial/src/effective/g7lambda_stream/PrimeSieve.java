@@ -0,0 +1,342 @@
+package effective.g7lambda_stream;
+
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Prime counting and enumeration without boxing, as a fast replacement for Eg48StreamParallel.pi.
+ *
+ * Eg48StreamParallel.pi2 turns every candidate into a BigInteger and runs isProbablePrime(50) on it,
+ * so even in parallel it allocates n objects and does n primality tests. Here:
+ *   1. pi(n) up to LEHMER_THRESHOLD runs a segmented Sieve of Eratosthenes. Each segment covers
+ *      SEGMENT_BITS odd numbers as one bit each in a long[] that fits in a 32 KB L1 cache, and is
+ *      crossed off with the base primes up to sqrt(n). Counting a segment is a popcount per word.
+ *   2. Segments are handed out by SegmentSpliterator, which splits on segment boundaries, and a
+ *      ForkJoin task splits it recursively, so the segments are sieved in parallel on the common pool.
+ *      primes(n) exposes the same spliterator as a LongStream, sequential or parallel.
+ *   3. Above LEHMER_THRESHOLD, pi(n) switches to the Meissel-Lehmer formula, which needs pi only up
+ *      to about n^(2/3) (answered from a sieved table) plus phi(x, a) partial sieve counts, and runs in
+ *      roughly O(n^(2/3)) time instead of O(n log log n).
+ * n may be at most MAX_N, the square of the largest table the Meissel-Lehmer step sieves; larger
+ * values throw IllegalArgumentException.
+ */
+public class PrimeSieve {
+    static final long LEHMER_THRESHOLD = 1L << 24;
+    public static final long MAX_N = (long) Lehmer.MAX_TABLE * Lehmer.MAX_TABLE - 1;
+    private static final long MAX_ISQRT = 3037000499L;                 // floor(sqrt(Long.MAX_VALUE))
+    private static final int SEGMENT_WORDS = 1 << 12;                 // 32 KB of long
+    private static final int SEGMENT_BITS = SEGMENT_WORDS << 6;       // odd numbers per segment
+    private static final long SEGMENT_SPAN = 2L * SEGMENT_BITS;       // integers per segment
+
+    /** Number of primes <= n. */
+    public static long pi(long n) {
+        checkN(n);
+        return n < LEHMER_THRESHOLD ? piSieve(n) : new Lehmer(n).pi(n);
+    }
+
+    /** Number of primes <= n by parallel segmented sieve. */
+    public static long piSieve(long n) {
+        checkN(n);
+        if (n < 2)
+            return 0;
+        return ForkJoinPool.commonPool().invoke(new CountTask(new SegmentSpliterator(n)));
+    }
+
+    /** The primes <= n in ascending order; split across segments when parallel. */
+    public static LongStream primes(long n, boolean parallel) {
+        checkN(n);
+        return StreamSupport.longStream(new SegmentSpliterator(n), parallel);
+    }
+
+    /** Odd primes up to limit, by a plain sieve; the base primes for segment sieving. */
+    static int[] smallOddPrimes(int limit) {
+        boolean[] composite = new boolean[limit + 1];
+        int count = 0;
+        for (int i = 3; i <= limit; i += 2) {
+            if (composite[i])
+                continue;
+            count++;
+            for (long j = (long) i * i; j <= limit; j += 2L * i)
+                composite[(int) j] = true;
+        }
+        int[] primes = new int[count];
+        for (int i = 3, k = 0; i <= limit; i += 2)
+            if (!composite[i])
+                primes[k++] = i;
+        return primes;
+    }
+
+    private static void checkN(long n) {
+        if (n > MAX_N)
+            throw new IllegalArgumentException("n too large: " + n);
+    }
+
+    /** floor(sqrt(n)) for n >= 0; r stays at most MAX_ISQRT, so r * r cannot overflow. */
+    static long isqrt(long n) {
+        long r = Math.min(MAX_ISQRT, (long) Math.sqrt((double) n));
+        while (r * r > n)
+            r--;
+        while (r < MAX_ISQRT && (r + 1) * (r + 1) <= n)
+            r++;
+        return r;
+    }
+
+    /**
+     * Sieves the odd numbers in [low, low + SEGMENT_SPAN) into bits (1 = composite) and clears
+     * the bits at or past limit. low is odd.
+     */
+    static void sieveSegment(long low, long limit, int[] basePrimes, long[] bits) {
+        java.util.Arrays.fill(bits, 0L);
+        long high = Math.min(low + SEGMENT_SPAN, limit + 1);          // exclusive
+        for (int p : basePrimes) {
+            long pp = (long) p * p;
+            if (pp >= high)
+                break;
+            long start = Math.max(pp, (low + p - 1) / p * p);
+            if ((start & 1) == 0)
+                start += p;
+            for (long m = (start - low) >>> 1, end = (high - low + 1) >>> 1; m < end; m += p)
+                bits[(int) (m >>> 6)] |= 1L << m;
+        }
+        if (low == 1)
+            bits[0] |= 1L;                                            // 1 is not prime
+        // Mark everything past the limit as composite
+        long valid = (high - low + 1) >>> 1;
+        if (valid < SEGMENT_BITS) {
+            int w = (int) (valid >>> 6);
+            if (w < bits.length) {
+                bits[w] |= -1L << valid;
+                for (int i = w + 1; i < bits.length; i++)
+                    bits[i] = -1L;
+            }
+        }
+    }
+
+    /**
+     * Splits [2, n] on segment boundaries. Each tryAdvance or forEachRemaining step sieves one
+     * segment into a buffer owned by this spliterator, so splits never share state.
+     */
+    static final class SegmentSpliterator implements Spliterator.OfLong {
+        private final long n;
+        private final int[] basePrimes;
+        private long segment;           // next segment to sieve
+        private final long endSegment;  // exclusive
+        private long[] bits;
+        private long low;               // first odd number of the buffered segment
+        private int cursor = -1;        // next bit to report from the buffered segment, -1 if none
+        private boolean twoPending;
+
+        SegmentSpliterator(long n) {
+            this(n, smallOddPrimes((int) Math.max(3, isqrt(Math.max(n, 0)))), 0,
+                    n < 3 ? 0 : ((n - 1) / SEGMENT_SPAN) + 1, n >= 2);
+        }
+
+        private SegmentSpliterator(long n, int[] basePrimes, long segment, long endSegment, boolean twoPending) {
+            this.n = n;
+            this.basePrimes = basePrimes;
+            this.segment = segment;
+            this.endSegment = endSegment;
+            this.twoPending = twoPending;
+        }
+
+        public Spliterator.OfLong trySplit() {
+            if (cursor >= 0)
+                return null;
+            long mid = (segment + endSegment) >>> 1;
+            if (mid <= segment)
+                return null;
+            SegmentSpliterator prefix = new SegmentSpliterator(n, basePrimes, segment, mid, twoPending);
+            segment = mid;
+            twoPending = false;
+            return prefix;
+        }
+
+        /** Number of unsieved segments left. */
+        long segments() {
+            return endSegment - segment;
+        }
+
+        /** Counts the remaining primes by popcount, without reporting them. */
+        long countRemaining() {
+            long count = twoPending ? 1 : 0;
+            twoPending = false;
+            if (cursor >= 0) {
+                while (tryAdvanceInSegment(v -> { }))
+                    count++;
+            }
+            long[] buffer = bits != null ? bits : new long[SEGMENT_WORDS];
+            for (; segment < endSegment; segment++) {
+                sieveSegment(1 + segment * SEGMENT_SPAN, n, basePrimes, buffer);
+                for (long w : buffer)
+                    count += Long.bitCount(~w);
+            }
+            return count;
+        }
+
+        public boolean tryAdvance(LongConsumer action) {
+            if (twoPending) {
+                twoPending = false;
+                action.accept(2);
+                return true;
+            }
+            for (;;) {
+                if (cursor >= 0 && tryAdvanceInSegment(action))
+                    return true;
+                if (segment >= endSegment)
+                    return false;
+                if (bits == null)
+                    bits = new long[SEGMENT_WORDS];
+                low = 1 + segment * SEGMENT_SPAN;
+                sieveSegment(low, n, basePrimes, bits);
+                segment++;
+                cursor = 0;
+            }
+        }
+
+        private boolean tryAdvanceInSegment(LongConsumer action) {
+            while (cursor < SEGMENT_BITS) {
+                int w = cursor >>> 6;
+                long free = ~bits[w] & (-1L << cursor);
+                if (free != 0) {
+                    int bit = (w << 6) + Long.numberOfTrailingZeros(free);
+                    cursor = bit + 1;
+                    action.accept(low + 2L * bit);
+                    return true;
+                }
+                cursor = (w + 1) << 6;
+            }
+            cursor = -1;
+            return false;
+        }
+
+        public long estimateSize() {
+            // By the prime number theorem, about span / ln(span) primes remain
+            double span = Math.max(2.0, (double) segments() * SEGMENT_SPAN);
+            return (long) (span / Math.log(span)) + 1;
+        }
+
+        public int characteristics() {
+            return ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE;
+        }
+
+        public java.util.Comparator<? super Long> getComparator() {
+            return null;
+        }
+    }
+
+    /** Splits a SegmentSpliterator until the pieces are a few segments each, then counts them. */
+    static final class CountTask extends RecursiveTask<Long> {
+        private static final long LEAF_SEGMENTS = 4;
+        private final SegmentSpliterator spliterator;
+
+        CountTask(SegmentSpliterator spliterator) {
+            this.spliterator = spliterator;
+        }
+
+        protected Long compute() {
+            if (spliterator.segments() > LEAF_SEGMENTS) {
+                SegmentSpliterator prefix = (SegmentSpliterator) spliterator.trySplit();
+                if (prefix != null) {
+                    CountTask left = new CountTask(prefix);
+                    left.fork();
+                    long right = new CountTask(spliterator).compute();
+                    return left.join() + right;
+                }
+            }
+            return spliterator.countRemaining();
+        }
+    }
+
+    /**
+     * Meissel-Lehmer prime counting:
+     *   pi(x) = phi(x, a) + (b + a - 2)(b - a + 1) / 2 - sum_{a<i<=b} pi(x / p_i)
+     *           - sum_{a<i<=c} sum_{i<=j<=b_i} (pi(x / (p_i p_j)) - (j - 1))
+     * with a = pi(x^1/4), b = pi(x^1/2), c = pi(x^1/3), b_i = pi(sqrt(x / p_i)). phi(x, a), the count
+     * of numbers <= x with no prime factor among the first a primes, uses phi(x, a) = pi(x) - a + 1
+     * once p_a^2 >= x, and small pi values come from a table sieved up to about x^(2/3).
+     */
+    static final class Lehmer {
+        static final int MAX_TABLE = 1 << 28;
+        private final int tableLimit;
+        private final long[] composite;     // odd numbers, as in the segments; 1 = composite
+        private final int[] countBefore;    // primes below each word's first number, including 2
+        private final int[] primes;         // primes[1] = 2, primes[2] = 3, ... (1-based)
+
+        Lehmer(long x) {
+            long cube = (long) Math.cbrt((double) x) + 1;
+            tableLimit = (int) Math.min(MAX_TABLE, Math.max(1 << 20, cube * cube));
+            if (isqrt(x) >= tableLimit)
+                throw new IllegalArgumentException("n too large: " + x);
+            int words = (tableLimit >>> 7) + 1;
+            composite = new long[words];
+            countBefore = new int[words];
+            int[] base = smallOddPrimes((int) isqrt(tableLimit) + 1);
+            for (int p : base)
+                for (long m = ((long) p * p) >>> 1; m < (long) words << 6; m += p)
+                    composite[(int) (m >>> 6)] |= 1L << m;
+            composite[0] |= 1L;                 // 1
+            int count = 1;                      // 2
+            for (int w = 0; w < words; w++) {
+                countBefore[w] = count;
+                count += Long.bitCount(~composite[w]);
+            }
+            int nPrimes = (int) tablePi(isqrt(x) + 1);
+            primes = new int[nPrimes + 1];
+            primes[1] = 2;
+            for (int k = 2, v = 3; k <= nPrimes; v += 2)
+                if ((composite[v >>> 7] & (1L << (v >>> 1))) == 0)
+                    primes[k++] = v;
+        }
+
+        private long tablePi(long y) {
+            if (y < 2)
+                return 0;
+            long m = (y - 1) >>> 1;             // bit of the largest odd number <= y
+            int w = (int) (m >>> 6);
+            long upTo = ~composite[w] & (-1L >>> (63 - (m & 63)));
+            return countBefore[w] + Long.bitCount(upTo);
+        }
+
+        long pi(long x) {
+            if (x <= tableLimit)
+                return tablePi(x);
+            int a = (int) pi(isqrt(isqrt(x)));
+            int b = (int) pi(isqrt(x));
+            int c = (int) pi(cbrtFloor(x));
+            long sum = phi(x, a) + ((long) (b + a - 2) * (b - a + 1)) / 2;
+            for (int i = a + 1; i <= b; i++) {
+                long w = x / primes[i];
+                sum -= pi(w);
+                if (i <= c) {
+                    int bi = (int) pi(isqrt(w));
+                    for (int j = i; j <= bi; j++)
+                        sum -= pi(w / primes[j]) - (j - 1);
+                }
+            }
+            return sum;
+        }
+
+        private long phi(long x, int a) {
+            if (a == 0 || x == 0)
+                return x;
+            if (a == 1)
+                return (x + 1) >>> 1;
+            if ((long) primes[a] * primes[a] >= x && x <= tableLimit)
+                return x < primes[a] ? 1 : tablePi(x) - a + 1;
+            return phi(x, a - 1) - phi(x / primes[a], a - 1);
+        }
+
+        private static long cbrtFloor(long x) {
+            long r = (long) Math.cbrt((double) x);
+            while (r * r * r > x)
+                r--;
+            while ((r + 1) * (r + 1) * (r + 1) <= x)
+                r++;
+            return r;
+        }
+    }
+}
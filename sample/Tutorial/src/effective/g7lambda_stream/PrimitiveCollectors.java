@@ -0,0 +1,362 @@
+package effective.g7lambda_stream;
+
+import effective.g9programming.primitive.Hashing;
+
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collector.Characteristics.IDENTITY_FINISH;
+import static java.util.stream.Collector.Characteristics.UNORDERED;
+import static java.util.stream.Collectors.groupingBy;
+
+/**
+ * Collectors for frequency tables and sums that keep keys and counts unboxed.
+ *
+ * groupingBy(classifier, Collectors.counting()), the frequency-table idiom of Item 46, puts every key in a
+ * HashMap.Node and every count in a Long, and summingLong adds a long[] box per key on top. Here:
+ *   1. counting and summingLong collect into an ObjectLongMap: open addressing with linear probing
+ *      over a K[] and a long[], so a new key costs no allocation unless the table grows, and adding
+ *      to an existing key costs none at all. Like the maps in effective.g9programming.primitive, it
+ *      spreads keys with Hashing.mix and grows past Hashing's fill limit.
+ *   2. countingInt and summingLongInt take an int key (a code point, an id, a bucket) and collect into
+ *      an IntLongMap over an int[] and a long[], with no key objects at all.
+ *   3. countingEnum and summingLongEnum collect into an EnumLongMap, a long[] indexed by ordinal,
+ *      which is what Item 37 recommends with EnumMap, minus the Long values.
+ *   4. On a parallel stream every leaf task fills its own map, and the combiner adds the smaller
+ *      map into the larger one. No map is shared, so there are no locks or CAS retries on the
+ *      counts, and none of the collectors is CONCURRENT.
+ * Keys may not be null, as with groupingBy.
+ */
+public class PrimitiveCollectors {
+    private PrimitiveCollectors() {
+    }
+
+    /** Number of elements per key, like groupingBy(classifier, Collectors.counting()). */
+    public static <T, K> Collector<T, ?, ObjectLongMap<K>> counting(Function<? super T, ? extends K> classifier) {
+        return summingLong(classifier, t -> 1L);
+    }
+
+    /** Sum of mapper per key, like groupingBy(classifier, summingLong(mapper)). */
+    public static <T, K> Collector<T, ?, ObjectLongMap<K>> summingLong(
+            Function<? super T, ? extends K> classifier, ToLongFunction<? super T> mapper) {
+        return Collector.of(ObjectLongMap<K>::new,
+                (map, t) -> map.addTo(classifier.apply(t), mapper.applyAsLong(t)),
+                PrimitiveCollectors::<ObjectLongMap<K>>mergeSmallerIntoLarger,
+                IDENTITY_FINISH, UNORDERED);
+    }
+
+    /** Number of elements per int key. */
+    public static <T> Collector<T, ?, IntLongMap> countingInt(ToIntFunction<? super T> classifier) {
+        return summingLongInt(classifier, t -> 1L);
+    }
+
+    /** Sum of mapper per int key. */
+    public static <T> Collector<T, ?, IntLongMap> summingLongInt(
+            ToIntFunction<? super T> classifier, ToLongFunction<? super T> mapper) {
+        return Collector.of(IntLongMap::new,
+                (map, t) -> map.addTo(classifier.applyAsInt(t), mapper.applyAsLong(t)),
+                PrimitiveCollectors::<IntLongMap>mergeSmallerIntoLarger,
+                IDENTITY_FINISH, UNORDERED);
+    }
+
+    /** Number of elements per enum constant. */
+    public static <T, E extends Enum<E>> Collector<T, ?, EnumLongMap<E>> countingEnum(
+            Class<E> keyType, Function<? super T, E> classifier) {
+        return summingLongEnum(keyType, classifier, t -> 1L);
+    }
+
+    /** Sum of mapper per enum constant. */
+    public static <T, E extends Enum<E>> Collector<T, ?, EnumLongMap<E>> summingLongEnum(
+            Class<E> keyType, Function<? super T, E> classifier, ToLongFunction<? super T> mapper) {
+        return Collector.of(() -> new EnumLongMap<>(keyType),
+                (map, t) -> map.addTo(classifier.apply(t), mapper.applyAsLong(t)),
+                EnumLongMap::addAll,
+                IDENTITY_FINISH, UNORDERED);
+    }
+
+    interface Mergeable<M> {
+        int size();
+
+        M addAll(M other);
+    }
+
+    private static <M extends Mergeable<M>> M mergeSmallerIntoLarger(M left, M right) {
+        return left.size() >= right.size() ? left.addAll(right) : right.addAll(left);
+    }
+
+    /** Open-addressing map from object keys to long values; absent keys read as 0. */
+    public static final class ObjectLongMap<K> implements Mergeable<ObjectLongMap<K>> {
+        private Object[] keys = new Object[Hashing.MIN_CAPACITY];       // null marks an empty slot
+        private long[] values = new long[Hashing.MIN_CAPACITY];
+        private int size;
+
+        public long getLong(K key) {
+            int slot = find(key);
+            return keys[slot] == null ? 0 : values[slot];
+        }
+
+        public boolean containsKey(K key) {
+            return keys[find(key)] != null;
+        }
+
+        public void addTo(K key, long delta) {
+            int slot = find(Objects.requireNonNull(key, "element cannot be mapped to a null key"));
+            if (keys[slot] != null) {
+                values[slot] += delta;
+                return;
+            }
+            keys[slot] = key;
+            values[slot] = delta;
+            if (Hashing.shouldGrow(++size, keys.length))
+                rehash(keys.length * 2);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void forEach(ObjLongConsumer<? super K> action) {
+            for (int slot = 0; slot < keys.length; slot++)
+                if (keys[slot] != null)
+                    action.accept((K) keys[slot], values[slot]);
+        }
+
+        public ObjectLongMap<K> addAll(ObjectLongMap<K> other) {
+            other.forEach(this::addTo);
+            return this;
+        }
+
+        /** A boxed copy, for printing or for code that needs a Map. */
+        public Map<K, Long> toMap() {
+            Map<K, Long> map = new HashMap<>();
+            forEach(map::put);
+            return map;
+        }
+
+        @Override public String toString() {
+            return toMap().toString();
+        }
+
+        private int find(Object key) {
+            int mask = keys.length - 1;
+            int slot = Hashing.mix(key.hashCode()) & mask;
+            while (keys[slot] != null && !keys[slot].equals(key))
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void rehash(int capacity) {
+            Object[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new Object[capacity];
+            values = new long[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = find(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    /** Open-addressing map from int keys to long values; absent keys read as 0. */
+    public static final class IntLongMap implements Mergeable<IntLongMap> {
+        // Key 0 marks an empty slot, so the entry for key 0 itself is kept on the side
+        private int[] keys = new int[Hashing.MIN_CAPACITY];
+        private long[] values = new long[Hashing.MIN_CAPACITY];
+        private int size;
+        private boolean hasZeroKey;
+        private long zeroValue;
+
+        public long get(int key) {
+            if (key == 0)
+                return zeroValue;
+            int slot = find(key);
+            return keys[slot] == 0 ? 0 : values[slot];
+        }
+
+        public boolean containsKey(int key) {
+            return key == 0 ? hasZeroKey : keys[find(key)] != 0;
+        }
+
+        public void addTo(int key, long delta) {
+            if (key == 0) {
+                if (!hasZeroKey) {
+                    hasZeroKey = true;
+                    size++;
+                }
+                zeroValue += delta;
+                return;
+            }
+            int slot = find(key);
+            if (keys[slot] != 0) {
+                values[slot] += delta;
+                return;
+            }
+            keys[slot] = key;
+            values[slot] = delta;
+            if (Hashing.shouldGrow(++size, keys.length))
+                rehash(keys.length * 2);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void forEach(IntLongConsumer action) {
+            if (hasZeroKey)
+                action.accept(0, zeroValue);
+            for (int slot = 0; slot < keys.length; slot++)
+                if (keys[slot] != 0)
+                    action.accept(keys[slot], values[slot]);
+        }
+
+        public IntLongMap addAll(IntLongMap other) {
+            other.forEach(this::addTo);
+            return this;
+        }
+
+        /** A boxed copy, for printing or for code that needs a Map. */
+        public Map<Integer, Long> toMap() {
+            Map<Integer, Long> map = new HashMap<>();
+            forEach(map::put);
+            return map;
+        }
+
+        @Override public String toString() {
+            return toMap().toString();
+        }
+
+        private int find(int key) {
+            int mask = keys.length - 1;
+            int slot = Hashing.mix(key) & mask;
+            while (keys[slot] != 0 && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new int[capacity];
+            values = new long[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = find(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface IntLongConsumer {
+        void accept(int key, long value);
+    }
+
+    /** long values indexed by enum ordinal; only constants that were added to are present. */
+    public static final class EnumLongMap<E extends Enum<E>> {
+        private final Class<E> keyType;
+        private final E[] universe;
+        private final long[] values;
+        private final boolean[] present;
+
+        public EnumLongMap(Class<E> keyType) {
+            this.keyType = keyType;
+            universe = keyType.getEnumConstants();
+            values = new long[universe.length];
+            present = new boolean[universe.length];
+        }
+
+        public long get(E key) {
+            return values[key.ordinal()];
+        }
+
+        public boolean containsKey(E key) {
+            return present[key.ordinal()];
+        }
+
+        public void addTo(E key, long delta) {
+            int i = Objects.requireNonNull(key, "element cannot be mapped to a null key").ordinal();
+            values[i] += delta;
+            present[i] = true;
+        }
+
+        public void forEach(ObjLongConsumer<? super E> action) {
+            for (int i = 0; i < universe.length; i++)
+                if (present[i])
+                    action.accept(universe[i], values[i]);
+        }
+
+        public EnumLongMap<E> addAll(EnumLongMap<E> other) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] += other.values[i];
+                present[i] |= other.present[i];
+            }
+            return this;
+        }
+
+        /** A boxed copy as an EnumMap, for printing or for code that needs a Map. */
+        public Map<E, Long> toMap() {
+            Map<E, Long> map = new EnumMap<>(keyType);
+            forEach(map::put);
+            return map;
+        }
+
+        @Override public String toString() {
+            return toMap().toString();
+        }
+    }
+
+    enum Length { SHORT, MEDIUM, LONG }
+
+    // Frequency tables over a generated word list, checked against groupingBy(..., Collectors.counting())
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        SplittableRandom random = new SplittableRandom(46);
+        String[] vocabulary = new String[50_000];
+        for (int i = 0; i < vocabulary.length; i++)
+            vocabulary[i] = Integer.toString(random.nextInt(), 36);
+        List<String> words = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            words.add(vocabulary[random.nextInt(vocabulary.length)]);
+        Function<String, Length> length = w -> w.length() < 4 ? Length.SHORT : w.length() < 6 ? Length.MEDIUM : Length.LONG;
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            Map<String, Long> boxed = words.parallelStream().collect(groupingBy(w -> w, Collectors.counting()));
+            long boxedNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ObjectLongMap<String> freq = words.parallelStream().collect(counting(w -> w));
+            long primitiveNanos = System.nanoTime() - start;
+            if (!freq.toMap().equals(boxed))
+                throw new AssertionError("counting disagrees with groupingBy");
+
+            Map<Integer, Long> byHash = words.parallelStream().collect(groupingBy(w -> w.hashCode() & 1023, Collectors.counting()));
+            if (!words.parallelStream().collect(countingInt(w -> w.hashCode() & 1023)).toMap().equals(byHash))
+                throw new AssertionError("countingInt disagrees with groupingBy");
+
+            Map<Length, Long> byLength = words.parallelStream()
+                    .collect(groupingBy(length, () -> new EnumMap<>(Length.class), Collectors.counting()));
+            EnumLongMap<Length> enumFreq = words.parallelStream().collect(countingEnum(Length.class, length));
+            if (!enumFreq.toMap().equals(byLength))
+                throw new AssertionError("countingEnum disagrees with groupingBy");
+
+            System.out.format("%,d words, %,d distinct: groupingBy %.0f ms, counting %.0f ms; %s%n",
+                    n, freq.size(), boxedNanos / 1e6, primitiveNanos / 1e6, enumFreq);
+        }
+
+        // The frequency table of Item 46, over the words of a short text
+        Stream.of("the quick brown fox jumps over the lazy dog the end".split(" "))
+                .collect(counting(String::toLowerCase))
+                .forEach((word, count) -> System.out.print(word + "=" + count + " "));
+        System.out.println();
+    }
+}
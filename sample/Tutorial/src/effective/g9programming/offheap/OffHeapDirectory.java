@@ -0,0 +1,145 @@
+package effective.g9programming.offheap;
+
+import effective.g3method.Eg11HashCode.PhoneNumber;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Record layouts for the directory's lookup tables, and a comparison of GC cost on-heap and off-heap.
+ *
+ * ADDRESS and WORKER have the fields of com.demo.Address and com.demo.Worker from the CJNIJava
+ * sample, with the strings given fixed UTF-8 widths. PHONE holds an Eg11HashCode.PhoneNumber keyed
+ * by its ten digits as one long. A table of these is one OffHeapTable, and the objects are created
+ * only when a row is read back.
+ *
+ * main builds N addresses as a HashMap<Integer, Address> and as an OffHeapTable, and times a few
+ * full collections with each held live.
+ */
+public class OffHeapDirectory {
+    private static final int N = 2_000_000;
+
+    public static final RecordLayout ADDRESS = RecordLayout.builder("Address")
+            .intField("id")
+            .stringField("name", 32)
+            .stringField("ip", 16)
+            .intField("port")
+            .build();
+
+    public static final RecordLayout WORKER = RecordLayout.builder("Worker")
+            .stringField("serial", 24)
+            .stringField("number", 20)
+            .stringField("action", 16)
+            .stringField("date", 20)
+            .stringField("flag", 4)
+            .stringField("reason", 64)
+            .stringField("source", 16)
+            .build();
+
+    public static final RecordLayout PHONE = RecordLayout.builder("PhoneNumber")
+            .longField("number")
+            .shortField("areaCode")
+            .shortField("prefix")
+            .shortField("lineNum")
+            .build();
+
+    private static final RecordLayout.Field PHONE_NUMBER = PHONE.field("number");
+    private static final RecordLayout.Field AREA_CODE = PHONE.field("areaCode");
+    private static final RecordLayout.Field PREFIX = PHONE.field("prefix");
+    private static final RecordLayout.Field LINE_NUM = PHONE.field("lineNum");
+
+    /** The key of pn in a PHONE table: its ten digits as one number. */
+    public static long phoneKey(int areaCode, int prefix, int lineNum) {
+        return areaCode * 10_000_000L + prefix * 10_000L + lineNum;
+    }
+
+    public static int addPhone(OffHeapTable phones, PhoneNumber pn) {
+        return phones.insert(row -> row
+                .setLong(PHONE_NUMBER, phoneKey(pn.areaCode(), pn.prefix(), pn.lineNum()))
+                .setShort(AREA_CODE, (short) pn.areaCode())
+                .setShort(PREFIX, (short) pn.prefix())
+                .setShort(LINE_NUM, (short) pn.lineNum()));
+    }
+
+    /** The PhoneNumber with these digits, or null if the table has none. */
+    public static PhoneNumber findPhone(OffHeapTable phones, int areaCode, int prefix, int lineNum) {
+        int row = phones.find(phoneKey(areaCode, prefix, lineNum));
+        if (row < 0)
+            return null;
+        OffHeapTable.Row r = phones.row(row);
+        return new PhoneNumber(r.getShort(AREA_CODE), r.getShort(PREFIX), r.getShort(LINE_NUM));
+    }
+
+    // The on-heap shape of com.demo.Address, for the comparison
+    static final class Address {
+        final int id;
+        final String name;
+        final String ip;
+        final int port;
+
+        Address(int id, String name, String ip, int port) {
+            this.id = id;
+            this.name = name;
+            this.ip = ip;
+            this.port = port;
+        }
+    }
+
+    static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            total += Math.max(0, gc.getCollectionTime());
+        return total;
+    }
+
+    static void report(String name, Object held) {
+        long before = gcMillis();
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++)
+            System.gc();
+        long wall = System.nanoTime() - start;
+        Runtime rt = Runtime.getRuntime();
+        System.out.format("%-24s heap %,6d MB, 5 full GCs %,6d ms (%d ms by GC beans)%n", name,
+                (rt.totalMemory() - rt.freeMemory()) >> 20, wall / 1_000_000, gcMillis() - before);
+        if (held.hashCode() == 42)
+            System.out.println();       // Keeps held reachable until here
+    }
+
+    public static void main(String[] args) {
+        report("empty", new Object());
+
+        Map<Integer, Address> heap = new HashMap<>();
+        for (int i = 0; i < N; i++)
+            heap.put(i, new Address(i, "host-" + i, "10." + (i >>> 16) + "." + ((i >>> 8) & 255) + "." + (i & 255), 8000 + i % 1000));
+        report("HashMap<Integer, Address>", heap);
+        String expected = heap.get(N / 2).name;
+        heap = null;
+
+        RecordLayout.Field id = ADDRESS.field("id"), name = ADDRESS.field("name"),
+                ip = ADDRESS.field("ip"), port = ADDRESS.field("port");
+        try (OffHeapTable addresses = new OffHeapTable(ADDRESS, "id", N)) {
+            for (int i = 0; i < N; i++) {
+                final int k = i;
+                addresses.insert(row -> row
+                        .setInt(id, k)
+                        .setString(name, "host-" + k)
+                        .setString(ip, "10." + (k >>> 16) + "." + ((k >>> 8) & 255) + "." + (k & 255))
+                        .setInt(port, 8000 + k % 1000));
+            }
+            report("OffHeapTable", addresses);
+            String found = addresses.row(addresses.find(N / 2)).getString(name);
+            if (!found.equals(expected))
+                throw new AssertionError(found + " != " + expected);
+            System.out.format("%,d addresses in %,d MB of native memory, %d bytes per record%n",
+                    addresses.size(), addresses.byteSize() >> 20, ADDRESS.byteSize());
+        }
+
+        try (OffHeapTable phones = new OffHeapTable(PHONE, "number", 0)) {
+            addPhone(phones, new PhoneNumber(707, 867, 5309));
+            PhoneNumber pn = findPhone(phones, 707, 867, 5309);
+            System.out.println(PHONE + " found: " + pn.equals(new PhoneNumber(707, 867, 5309)));
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package effective.g9programming.offheap;
+
+import effective.g9programming.primitive.Hashing;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An append-only table of fixed-layout records in native memory, with a hash index on one key column.
+ *
+ * A million on-heap records with a few String fields each is several million objects. Every full
+ * GC has to trace all of them, whether or not they ever change. Here the records are packed back
+ * to back in one MemorySegment, laid out by a RecordLayout. The index is a second segment of int
+ * slots that hold row + 1 (0 is a free slot), probed linearly. The key is read back from the
+ * record, so the index stores no copy of it. The GC sees only this object, its two segments and
+ * its Arena, however many rows there are.
+ *
+ * Lifecycle is explicit: the memory belongs to a shared Arena that close() releases at once, and
+ * any access after that throws IllegalStateException instead of reading freed memory. Use the table
+ * in a try-with-resources block or close it when the lookup table is retired. Growing allocates
+ * a larger pair of segments in a new Arena, copies the records, rebuilds the index and closes the
+ * old Arena.
+ *
+ * Not thread-safe for writes. Once the table is fully built and safely published, any number of
+ * threads may read it concurrently.
+ */
+public final class OffHeapTable implements AutoCloseable {
+    private static final int MIN_CAPACITY = 16;
+
+    private final RecordLayout layout;
+    private final RecordLayout.Field key;
+    private final long stride;
+    private Arena arena;
+    private MemorySegment records;
+    private MemorySegment index;
+    private int capacity;
+    private int size;
+    private boolean closed;
+
+    /** Writes the fields of a new record; see insert. */
+    @FunctionalInterface
+    public interface RowWriter {
+        void write(Row row);
+    }
+
+    public OffHeapTable(RecordLayout layout, String keyField, int initialCapacity) {
+        this.layout = layout;
+        this.key = layout.field(keyField);
+        if (key.kind == RecordLayout.Kind.SHORT)
+            throw new IllegalArgumentException("Key column must be INT, LONG or STRING: " + key);
+        this.stride = layout.byteSize();
+        allocate(Math.max(MIN_CAPACITY, initialCapacity));
+    }
+
+    /**
+     * Appends a record filled in by writer, which starts from all-zero fields, and indexes it.
+     * Returns its row number. The Row given to writer may set the key only until write returns;
+     * if the insert fails, the Row cannot be used at all.
+     *
+     * @throws IllegalArgumentException if a record with the same key is already present; the
+     *         table is then unchanged
+     */
+    public int insert(RowWriter writer) {
+        if (size == capacity)
+            allocate(capacity * 2);
+        Row row = new Row(size, true);
+        records.asSlice(row.base, stride).fill((byte) 0);
+        boolean inserted = false;
+        try {
+            writer.write(row);
+            int mask = indexMask();
+            int slot = hashOfRow(size) & mask;
+            for (int r; (r = index.getAtIndex(ValueLayout.JAVA_INT, slot)) != 0; slot = (slot + 1) & mask)
+                if (sameKey(r - 1, size))
+                    throw new IllegalArgumentException("Duplicate key in row " + size + ": " + row.keyString());
+            index.setAtIndex(ValueLayout.JAVA_INT, slot, size + 1);
+            inserted = true;
+            return size++;
+        } finally {
+            // A Row kept past this point must not change the indexed key, nor a slot the next insert reuses
+            row.keyWritable = false;
+            row.valid = inserted;
+        }
+    }
+
+    /** Row number of the record with this int key, or -1. */
+    public int find(int k) {
+        checkKey(RecordLayout.Kind.INT);
+        int mask = indexMask();
+        for (int slot = Hashing.mix(k) & mask, r; (r = index.getAtIndex(ValueLayout.JAVA_INT, slot)) != 0; slot = (slot + 1) & mask)
+            if (records.get(ValueLayout.JAVA_INT, offset(r - 1) + key.offset) == k)
+                return r - 1;
+        return -1;
+    }
+
+    /** Row number of the record with this long key, or -1. */
+    public int find(long k) {
+        checkKey(RecordLayout.Kind.LONG);
+        int mask = indexMask();
+        for (int slot = Hashing.mix(k) & mask, r; (r = index.getAtIndex(ValueLayout.JAVA_INT, slot)) != 0; slot = (slot + 1) & mask)
+            if (records.get(ValueLayout.JAVA_LONG, offset(r - 1) + key.offset) == k)
+                return r - 1;
+        return -1;
+    }
+
+    /** Row number of the record with this string key, or -1. */
+    public int find(CharSequence k) {
+        checkKey(RecordLayout.Kind.STRING);
+        byte[] bytes = k.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > key.width)
+            return -1;
+        int h = 1;
+        for (byte b : bytes)
+            h = 31 * h + b;
+        int mask = indexMask();
+        for (int slot = Hashing.mix(h) & mask, r; (r = index.getAtIndex(ValueLayout.JAVA_INT, slot)) != 0; slot = (slot + 1) & mask)
+            if (stringEquals(offset(r - 1), bytes))
+                return r - 1;
+        return -1;
+    }
+
+    /** A view of row number i; its key column is read-only. */
+    public Row row(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Row: " + i + ", Size: " + size);
+        return new Row(i, false);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public RecordLayout layout() {
+        return layout;
+    }
+
+    /** Native bytes held for records and index. */
+    public long byteSize() {
+        return records.byteSize() + index.byteSize();
+    }
+
+    /** Frees the native memory; the table and its rows are unusable afterwards. Closing again does nothing. */
+    @Override public void close() {
+        if (closed)
+            return;
+        closed = true;
+        arena.close();
+    }
+
+    /**
+     * One record of the table. A Row is only a table and a row number, so it is cheap to create
+     * and usually never leaves the stack; the data stays in native memory.
+     */
+    public final class Row {
+        private final long base;
+        private boolean keyWritable;
+        private boolean valid = true;
+
+        private Row(int row, boolean keyWritable) {
+            this.base = offset(row);
+            this.keyWritable = keyWritable;
+        }
+
+        public short getShort(RecordLayout.Field f) {
+            return records.get(ValueLayout.JAVA_SHORT, at(f, RecordLayout.Kind.SHORT));
+        }
+
+        public int getInt(RecordLayout.Field f) {
+            return records.get(ValueLayout.JAVA_INT, at(f, RecordLayout.Kind.INT));
+        }
+
+        public long getLong(RecordLayout.Field f) {
+            return records.get(ValueLayout.JAVA_LONG, at(f, RecordLayout.Kind.LONG));
+        }
+
+        public String getString(RecordLayout.Field f) {
+            long at = at(f, RecordLayout.Kind.STRING);
+            int len = 0;
+            while (len < f.width && records.get(ValueLayout.JAVA_BYTE, at + len) != 0)
+                len++;
+            byte[] bytes = new byte[len];
+            MemorySegment.copy(records, ValueLayout.JAVA_BYTE, at, bytes, 0, len);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public Row setShort(RecordLayout.Field f, short value) {
+            records.set(ValueLayout.JAVA_SHORT, writable(f, RecordLayout.Kind.SHORT), value);
+            return this;
+        }
+
+        public Row setInt(RecordLayout.Field f, int value) {
+            records.set(ValueLayout.JAVA_INT, writable(f, RecordLayout.Kind.INT), value);
+            return this;
+        }
+
+        public Row setLong(RecordLayout.Field f, long value) {
+            records.set(ValueLayout.JAVA_LONG, writable(f, RecordLayout.Kind.LONG), value);
+            return this;
+        }
+
+        /**
+         * Stores value as UTF-8, zero-padded to the field's width. Strings containing '\0' cannot be
+         * read back whole.
+         *
+         * @throws IllegalArgumentException if the encoded value is wider than the field
+         */
+        public Row setString(RecordLayout.Field f, String value) {
+            long at = writable(f, RecordLayout.Kind.STRING);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > f.width)
+                throw new IllegalArgumentException(f.name + " is " + f.width + " bytes, " + bytes.length + " given");
+            MemorySegment.copy(bytes, 0, records, ValueLayout.JAVA_BYTE, at, bytes.length);
+            records.asSlice(at + bytes.length, f.width - bytes.length).fill((byte) 0);
+            return this;
+        }
+
+        String keyString() {
+            switch (key.kind) {
+                case INT:
+                    return Integer.toString(getInt(key));
+                case LONG:
+                    return Long.toString(getLong(key));
+                default:
+                    return getString(key);
+            }
+        }
+
+        private long at(RecordLayout.Field f, RecordLayout.Kind kind) {
+            if (!valid)
+                throw new IllegalStateException("Row was not inserted");
+            if (f.owner != layout || f.kind != kind)
+                throw new IllegalArgumentException(f + " is not a " + kind + " field of " + layout.struct().name().orElse("this layout"));
+            return base + f.offset;
+        }
+
+        private long writable(RecordLayout.Field f, RecordLayout.Kind kind) {
+            if (f == key && !keyWritable)
+                throw new UnsupportedOperationException("Key column " + f.name + " is indexed and cannot change");
+            return at(f, kind);
+        }
+    }
+
+    private long offset(int row) {
+        return row * stride;
+    }
+
+    private int indexMask() {
+        return (int) (index.byteSize() / Integer.BYTES) - 1;
+    }
+
+    private void checkKey(RecordLayout.Kind kind) {
+        if (key.kind != kind)
+            throw new IllegalArgumentException("Key column " + key.name + " is " + key.kind + ", not " + kind);
+    }
+
+    private int hashOfRow(int row) {
+        long at = offset(row) + key.offset;
+        switch (key.kind) {
+            case INT:
+                return Hashing.mix(records.get(ValueLayout.JAVA_INT, at));
+            case LONG:
+                return Hashing.mix(records.get(ValueLayout.JAVA_LONG, at));
+            default:
+                int h = 1;
+                for (int i = 0; i < key.width; i++) {
+                    byte b = records.get(ValueLayout.JAVA_BYTE, at + i);
+                    if (b == 0)
+                        break;
+                    h = 31 * h + b;
+                }
+                return Hashing.mix(h);
+        }
+    }
+
+    private boolean sameKey(int a, int b) {
+        return records.asSlice(offset(a) + key.offset, key.width)
+                .mismatch(records.asSlice(offset(b) + key.offset, key.width)) == -1;
+    }
+
+    private boolean stringEquals(long recordOffset, byte[] bytes) {
+        long at = recordOffset + key.offset;
+        for (int i = 0; i < bytes.length; i++)
+            if (records.get(ValueLayout.JAVA_BYTE, at + i) != bytes[i])
+                return false;
+        return bytes.length == key.width || records.get(ValueLayout.JAVA_BYTE, at + bytes.length) == 0;
+    }
+
+    /** Moves the records to segments for newCapacity rows and rebuilds the index at most half full. */
+    private void allocate(int newCapacity) {
+        Arena newArena = Arena.ofShared();
+        MemorySegment newRecords = newArena.allocate(newCapacity * stride, layout.byteAlignment());
+        int slots = Integer.highestOneBit(newCapacity - 1) << 2;
+        MemorySegment newIndex = newArena.allocate((long) slots * Integer.BYTES, Integer.BYTES);
+        newIndex.fill((byte) 0);
+        if (records != null)
+            MemorySegment.copy(records, 0, newRecords, 0, size * stride);
+        Arena oldArena = arena;
+        arena = newArena;
+        records = newRecords;
+        index = newIndex;
+        capacity = newCapacity;
+        int mask = slots - 1;
+        for (int row = 0; row < size; row++) {
+            int slot = hashOfRow(row) & mask;
+            while (index.getAtIndex(ValueLayout.JAVA_INT, slot) != 0)
+                slot = (slot + 1) & mask;
+            index.setAtIndex(ValueLayout.JAVA_INT, slot, row + 1);
+        }
+        if (oldArena != null)
+            oldArena.close();
+    }
+}
@@ -0,0 +1,157 @@
+package effective.g9programming.offheap;
+
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fixed layout of one record kind in an OffHeapTable, described once as a StructLayout.
+ *
+ * Fields are laid out in declaration order, each aligned to its own size, with padding inserted
+ * where needed and at the end so records can be packed back to back. Strings get a fixed number
+ * of UTF-8 bytes, zero-padded, so every record has the same size and field offsets are constants.
+ * Build one with builder(name) and look fields up by name once, then use the Field handles on the
+ * hot path.
+ */
+public final class RecordLayout {
+    public enum Kind { SHORT, INT, LONG, STRING }
+
+    /** A field of a RecordLayout: its kind, byte offset in the record and width in bytes. */
+    public static final class Field {
+        final RecordLayout owner;
+        final String name;
+        final Kind kind;
+        final long offset;
+        final int width;
+
+        private Field(RecordLayout owner, String name, Kind kind, long offset, int width) {
+            this.owner = owner;
+            this.name = name;
+            this.kind = kind;
+            this.offset = offset;
+            this.width = width;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Kind kind() {
+            return kind;
+        }
+
+        @Override public String toString() {
+            return name + ":" + kind + (kind == Kind.STRING ? "[" + width + "]" : "") + "@" + offset;
+        }
+    }
+
+    private final StructLayout struct;
+    private final Map<String, Field> fields = new LinkedHashMap<>();
+
+    private RecordLayout(String name, List<MemoryLayout> members, List<String> names, List<Kind> kinds) {
+        struct = MemoryLayout.structLayout(members.toArray(new MemoryLayout[0])).withName(name);
+        for (int i = 0; i < names.size(); i++) {
+            MemoryLayout.PathElement path = MemoryLayout.PathElement.groupElement(names.get(i));
+            long offset = struct.byteOffset(path);
+            int width = (int) struct.select(path).byteSize();
+            fields.put(names.get(i), new Field(this, names.get(i), kinds.get(i), offset, width));
+        }
+    }
+
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    public static final class Builder {
+        private final String name;
+        private final List<MemoryLayout> members = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<Kind> kinds = new ArrayList<>();
+        private long size;
+        private long maxAlignment = 1;
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder shortField(String name) {
+            return add(name, Kind.SHORT, ValueLayout.JAVA_SHORT);
+        }
+
+        public Builder intField(String name) {
+            return add(name, Kind.INT, ValueLayout.JAVA_INT);
+        }
+
+        public Builder longField(String name) {
+            return add(name, Kind.LONG, ValueLayout.JAVA_LONG);
+        }
+
+        /** A string of at most maxBytes bytes once encoded as UTF-8. */
+        public Builder stringField(String name, int maxBytes) {
+            if (maxBytes <= 0)
+                throw new IllegalArgumentException("maxBytes: " + maxBytes);
+            return add(name, Kind.STRING, MemoryLayout.sequenceLayout(maxBytes, ValueLayout.JAVA_BYTE));
+        }
+
+        private Builder add(String fieldName, Kind kind, MemoryLayout layout) {
+            if (names.contains(fieldName))
+                throw new IllegalArgumentException("Duplicate field: " + fieldName);
+            pad(layout.byteAlignment());
+            members.add(layout.withName(fieldName));
+            names.add(fieldName);
+            kinds.add(kind);
+            size += layout.byteSize();
+            maxAlignment = Math.max(maxAlignment, layout.byteAlignment());
+            return this;
+        }
+
+        private void pad(long alignment) {
+            long gap = (alignment - size % alignment) % alignment;
+            if (gap > 0) {
+                members.add(MemoryLayout.paddingLayout(gap));
+                size += gap;
+            }
+        }
+
+        public RecordLayout build() {
+            if (names.isEmpty())
+                throw new IllegalStateException("No fields");
+            pad(maxAlignment);
+            return new RecordLayout(name, members, names, kinds);
+        }
+    }
+
+    /** The field called name; look it up once and keep the handle. */
+    public Field field(String name) {
+        Field field = fields.get(name);
+        if (field == null)
+            throw new IllegalArgumentException("No field " + name + " in " + struct.name().orElse("record"));
+        return field;
+    }
+
+    public List<Field> fields() {
+        return Collections.unmodifiableList(new ArrayList<>(fields.values()));
+    }
+
+    /** Bytes per record, including padding. */
+    public long byteSize() {
+        return struct.byteSize();
+    }
+
+    public long byteAlignment() {
+        return struct.byteAlignment();
+    }
+
+    public StructLayout struct() {
+        return struct;
+    }
+
+    @Override public String toString() {
+        return struct.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package effective.g9programming.primitive;
+
+/**
+ * Hash mixing and table sizing shared by the open-addressing collections in this package. It is
+ * public so that the other hash tables in these examples spread their keys the same way.
+ *
+ * Keys are spread with a multiply by the golden ratio and an xor-shift, so sequential ints (ids,
+ * indexes) do not land in runs of neighbouring slots, and only the low bits are used as the slot.
+ * Tables are powers of two, kept between MIN_FILL and MAX_FILL full: they double past MAX_FILL
+ * and halve below MIN_FILL, down to MIN_CAPACITY.
+ */
+public final class Hashing {
+    public static final int MIN_CAPACITY = 16;
+    public static final float MAX_FILL = 0.5f;
+    public static final float MIN_FILL = 0.125f;
+
+    private Hashing() {
+    }
+
+    public static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) (h ^ (h >>> 16));
+    }
+
+    /** The smallest table with room for size entries below MAX_FILL. */
+    public static int capacityFor(int size) {
+        long needed = Math.max(MIN_CAPACITY, (long) Math.ceil(size / MAX_FILL) + 1);
+        if (needed > 1 << 30)
+            throw new IllegalStateException("Table too large for " + size + " entries");
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    public static boolean shouldGrow(int size, int capacity) {
+        return size > capacity * MAX_FILL;
+    }
+
+    public static boolean shouldShrink(int size, int capacity) {
+        return capacity > MIN_CAPACITY && size < capacity * MIN_FILL;
+    }
+
+    /**
+     * True if the entry at slot, whose home slot is home, may move back to the gap at last when
+     * the entry at last is deleted: it may unless home lies cyclically in (last, slot].
+     */
+    public static boolean canShift(int last, int slot, int home) {
+        return last <= slot ? last >= home || home > slot : last >= home && home > slot;
+    }
+}
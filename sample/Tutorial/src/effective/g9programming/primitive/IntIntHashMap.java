@@ -0,0 +1,184 @@
+package effective.g9programming.primitive;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A map from int to int with open addressing and linear probing, for the places a
+ * HashMap<Integer, Integer> would allocate a node and up to two Integers per entry.
+ *
+ * Keys and values sit in parallel int[]s, with key 0 marking a free slot; an entry for key 0
+ * itself is kept in two fields on the side. Removal shifts the following run of entries back
+ * instead of leaving tombstones, so lookups never slow down after many removals, and the table
+ * halves once it is under an eighth full. get returns 0 for an absent key, as a primitive
+ * stand-in for null; use containsKey to tell the two apart.
+ */
+public class IntIntHashMap {
+    private int[] keys;
+    private int[] values;
+    private int size;               // Entries in the table, not counting key 0
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(int key, int value);
+    }
+
+    public IntIntHashMap() {
+        this(0);
+    }
+
+    public IntIntHashMap(int expectedSize) {
+        int capacity = Hashing.capacityFor(expectedSize);
+        keys = new int[capacity];
+        values = new int[capacity];
+    }
+
+    public int get(int key) {
+        if (key == 0)
+            return zeroValue;
+        int slot = find(key);
+        return keys[slot] == 0 ? 0 : values[slot];
+    }
+
+    public boolean containsKey(int key) {
+        return key == 0 ? hasZeroKey : keys[find(key)] != 0;
+    }
+
+    /** Associates value with key and returns the previous value, or 0 if there was none. */
+    public int put(int key, int value) {
+        if (key == 0) {
+            int old = zeroValue;
+            hasZeroKey = true;
+            zeroValue = value;
+            return old;
+        }
+        int slot = find(key);
+        if (keys[slot] != 0) {
+            int old = values[slot];
+            values[slot] = value;
+            return old;
+        }
+        insert(slot, key, value);
+        return 0;
+    }
+
+    /** Adds delta to the value of key, starting from 0 if absent, and returns the new value. */
+    public int addTo(int key, int delta) {
+        if (key == 0) {
+            hasZeroKey = true;
+            return zeroValue += delta;
+        }
+        int slot = find(key);
+        if (keys[slot] != 0)
+            return values[slot] += delta;
+        insert(slot, key, delta);
+        return delta;
+    }
+
+    /** Removes key and returns its value, or 0 if it was absent. */
+    public int remove(int key) {
+        if (key == 0) {
+            int old = zeroValue;
+            hasZeroKey = false;
+            zeroValue = 0;
+            return old;
+        }
+        int slot = find(key);
+        if (keys[slot] == 0)
+            return 0;
+        int old = values[slot];
+        delete(slot);
+        return old;
+    }
+
+    public int size() {
+        return size + (hasZeroKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        keys = new int[Hashing.MIN_CAPACITY];
+        values = new int[Hashing.MIN_CAPACITY];
+        size = 0;
+        hasZeroKey = false;
+        zeroValue = 0;
+    }
+
+    public void forEach(EntryConsumer action) {
+        if (hasZeroKey)
+            action.accept(0, zeroValue);
+        for (int slot = 0; slot < keys.length; slot++)
+            if (keys[slot] != 0)
+                action.accept(keys[slot], values[slot]);
+    }
+
+    public void forEachKey(IntConsumer action) {
+        if (hasZeroKey)
+            action.accept(0);
+        for (int key : keys)
+            if (key != 0)
+                action.accept(key);
+    }
+
+    public void forEachValue(IntConsumer action) {
+        if (hasZeroKey)
+            action.accept(zeroValue);
+        for (int slot = 0; slot < keys.length; slot++)
+            if (keys[slot] != 0)
+                action.accept(values[slot]);
+    }
+
+    @Override public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, v) -> sb.append(sb.length() > 1 ? ", " : "").append(k).append('=').append(v));
+        return sb.append('}').toString();
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = Hashing.mix(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void insert(int slot, int key, int value) {
+        keys[slot] = key;
+        values[slot] = value;
+        if (Hashing.shouldGrow(++size, keys.length))
+            rehash(keys.length * 2);
+    }
+
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        int last = slot;
+        for (int next = (slot + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            if (Hashing.canShift(last, next, Hashing.mix(keys[next]) & mask)) {
+                keys[last] = keys[next];
+                values[last] = values[next];
+                last = next;
+            }
+        }
+        keys[last] = 0;
+        if (Hashing.shouldShrink(--size, keys.length))
+            rehash(Hashing.capacityFor(size));
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package effective.g9programming.primitive;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * A map from int keys to objects with open addressing and linear probing, for the places a
+ * HashMap<Integer, V> would allocate a node and an Integer per entry.
+ *
+ * Keys sit in an int[] and values in a parallel Object[]. Values may not be null, so a null value
+ * marks a free slot and get can return null for an absent key, as Map.get does. Removal shifts
+ * the following run back rather than leaving tombstones, clears the vacated value reference
+ * (Item 7), and the table halves once it is under an eighth full.
+ */
+public class IntObjectMap<V> {
+    private int[] keys;
+    private Object[] values;        // null marks a free slot
+    private int size;
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    public IntObjectMap() {
+        this(0);
+    }
+
+    public IntObjectMap(int expectedSize) {
+        int capacity = Hashing.capacityFor(expectedSize);
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        return (V) values[find(key)];
+    }
+
+    public boolean containsKey(int key) {
+        return values[find(key)] != null;
+    }
+
+    /** Associates value with key and returns the previous value, or null if there was none. */
+    public V put(int key, V value) {
+        Objects.requireNonNull(value);
+        int slot = find(key);
+        @SuppressWarnings("unchecked") V old = (V) values[slot];
+        keys[slot] = key;
+        values[slot] = value;
+        if (old == null && Hashing.shouldGrow(++size, keys.length))
+            rehash(keys.length * 2);
+        return old;
+    }
+
+    /** The value for key, computing and adding it first if absent. */
+    public V computeIfAbsent(int key, IntFunction<? extends V> mappingFunction) {
+        V value = get(key);
+        if (value == null) {
+            value = Objects.requireNonNull(mappingFunction.apply(key));
+            put(key, value);
+        }
+        return value;
+    }
+
+    /** Removes key and returns its value, or null if it was absent. */
+    public V remove(int key) {
+        int slot = find(key);
+        @SuppressWarnings("unchecked") V old = (V) values[slot];
+        if (old == null)
+            return null;
+        int mask = keys.length - 1;
+        int last = slot;
+        for (int next = (slot + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            if (Hashing.canShift(last, next, Hashing.mix(keys[next]) & mask)) {
+                keys[last] = keys[next];
+                values[last] = values[next];
+                last = next;
+            }
+        }
+        keys[last] = 0;
+        values[last] = null;        // Eliminate obsolete reference
+        if (Hashing.shouldShrink(--size, keys.length))
+            rehash(Hashing.capacityFor(size));
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        keys = new int[Hashing.MIN_CAPACITY];
+        values = new Object[Hashing.MIN_CAPACITY];
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> action) {
+        for (int slot = 0; slot < keys.length; slot++)
+            if (values[slot] != null)
+                action.accept(keys[slot], (V) values[slot]);
+    }
+
+    public void forEachKey(IntConsumer action) {
+        for (int slot = 0; slot < keys.length; slot++)
+            if (values[slot] != null)
+                action.accept(keys[slot]);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        for (Object value : values)
+            if (value != null)
+                action.accept((V) value);
+    }
+
+    @Override public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, v) -> sb.append(sb.length() > 1 ? ", " : "").append(k).append('=').append(v));
+        return sb.append('}').toString();
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = Hashing.mix(key) & mask;
+        while (values[slot] != null && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package effective.g9programming.primitive;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.function.IntConsumer;
+
+/**
+ * Eg29GenericType.Stack for int elements.
+ *
+ * Stack, Stack2 and Stack3 hold an Object[], so a Stack3<Integer> boxes every value pushed outside
+ * the Integer cache and keeps a reference plus a 16-byte Integer per element. This one holds an
+ * int[] that doubles when full and halves when a pop leaves it a quarter full, so a stack that
+ * was briefly deep does not keep its peak array.
+ */
+public class IntStack {
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private int[] elements;
+    private int size = 0;
+
+    public IntStack() {
+        elements = new int[DEFAULT_INITIAL_CAPACITY];
+    }
+
+    public void push(int e) {
+        if (elements.length == size)
+            elements = Arrays.copyOf(elements, 2 * size);
+        elements[size++] = e;
+    }
+
+    public int pop() {
+        if (size == 0)
+            throw new EmptyStackException();
+        int result = elements[--size];
+        if (elements.length > DEFAULT_INITIAL_CAPACITY && size < elements.length / 4)
+            elements = Arrays.copyOf(elements, elements.length / 2);
+        return result;
+    }
+
+    public int peek() {
+        if (size == 0)
+            throw new EmptyStackException();
+        return elements[size - 1];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Applies action from the bottom of the stack to the top. */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++)
+            action.accept(elements[i]);
+    }
+}
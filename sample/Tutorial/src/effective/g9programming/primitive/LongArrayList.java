@@ -0,0 +1,94 @@
+package effective.g9programming.primitive;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A growable long[], for the places an ArrayList<Long> would box every element.
+ *
+ * The backing array grows by half again when full, like ArrayList, and halves when removals
+ * leave it a quarter full.
+ */
+public class LongArrayList {
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private long[] elements;
+    private int size;
+
+    public LongArrayList() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public LongArrayList(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+        elements = new long[initialCapacity];
+    }
+
+    public void add(long e) {
+        if (elements.length == size)
+            elements = Arrays.copyOf(elements, Math.max(DEFAULT_INITIAL_CAPACITY, size + (size >> 1)));
+        elements[size++] = e;
+    }
+
+    public long get(int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    public long set(int index, long e) {
+        checkIndex(index);
+        long old = elements[index];
+        elements[index] = e;
+        return old;
+    }
+
+    /** Removes and returns the element at index, shifting later elements down. */
+    public long removeAt(int index) {
+        checkIndex(index);
+        long old = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        size--;
+        shrink();
+        return old;
+    }
+
+    public long removeLast() {
+        return removeAt(size - 1);
+    }
+
+    public void clear() {
+        size = 0;
+        shrink();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(LongConsumer action) {
+        for (int i = 0; i < size; i++)
+            action.accept(elements[i]);
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    @Override public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    private void shrink() {
+        if (elements.length > DEFAULT_INITIAL_CAPACITY && size < elements.length / 4)
+            elements = Arrays.copyOf(elements, Math.max(DEFAULT_INITIAL_CAPACITY, elements.length / 2));
+    }
+}
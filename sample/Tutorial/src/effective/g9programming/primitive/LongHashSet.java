@@ -0,0 +1,113 @@
+package effective.g9programming.primitive;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A set of longs with open addressing and linear probing, for the places a HashSet<Long> would
+ * allocate a HashMap node and a Long per element.
+ *
+ * Elements sit in one long[], with 0 marking a free slot and a flag recording whether 0 itself is
+ * in the set. Removal shifts the following run back rather than leaving tombstones, and the table
+ * halves once it is under an eighth full.
+ */
+public class LongHashSet {
+    private long[] elements;
+    private int size;               // Elements in the table, not counting 0
+    private boolean hasZero;
+
+    public LongHashSet() {
+        this(0);
+    }
+
+    public LongHashSet(int expectedSize) {
+        elements = new long[Hashing.capacityFor(expectedSize)];
+    }
+
+    public boolean contains(long e) {
+        return e == 0 ? hasZero : elements[find(e)] != 0;
+    }
+
+    /** Adds e and returns true if it was not already present. */
+    public boolean add(long e) {
+        if (e == 0) {
+            boolean added = !hasZero;
+            hasZero = true;
+            return added;
+        }
+        int slot = find(e);
+        if (elements[slot] != 0)
+            return false;
+        elements[slot] = e;
+        if (Hashing.shouldGrow(++size, elements.length))
+            rehash(elements.length * 2);
+        return true;
+    }
+
+    /** Removes e and returns true if it was present. */
+    public boolean remove(long e) {
+        if (e == 0) {
+            boolean removed = hasZero;
+            hasZero = false;
+            return removed;
+        }
+        int slot = find(e);
+        if (elements[slot] == 0)
+            return false;
+        int mask = elements.length - 1;
+        int last = slot;
+        for (int next = (slot + 1) & mask; elements[next] != 0; next = (next + 1) & mask) {
+            if (Hashing.canShift(last, next, Hashing.mix(elements[next]) & mask)) {
+                elements[last] = elements[next];
+                last = next;
+            }
+        }
+        elements[last] = 0;
+        if (Hashing.shouldShrink(--size, elements.length))
+            rehash(Hashing.capacityFor(size));
+        return true;
+    }
+
+    public int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        elements = new long[Hashing.MIN_CAPACITY];
+        size = 0;
+        hasZero = false;
+    }
+
+    public void forEach(LongConsumer action) {
+        if (hasZero)
+            action.accept(0);
+        for (long e : elements)
+            if (e != 0)
+                action.accept(e);
+    }
+
+    @Override public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        forEach(e -> sb.append(sb.length() > 1 ? ", " : "").append(e));
+        return sb.append(']').toString();
+    }
+
+    private int find(long e) {
+        int mask = elements.length - 1;
+        int slot = Hashing.mix(e) & mask;
+        while (elements[slot] != 0 && elements[slot] != e)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = elements;
+        elements = new long[capacity];
+        for (long e : old)
+            if (e != 0)
+                elements[find(e)] = e;
+    }
+}
@@ -0,0 +1,250 @@
+package effective.g9programming.primitive;
+
+import java.util.*;
+
+/**
+ * Footprint and throughput of this package's collections against their boxed java.util equivalents.
+ *
+ * Each pair builds the same N entries from the same keys, then:
+ *   1. footprint: the heap still in use after a GC with the collection held, minus the heap before
+ *      it was built, divided by N;
+ *   2. throughput: a build, a pass of lookups, and a pass of removals over half the keys, timed after
+ *      WARMUP untimed rounds.
+ * The keys are random ints outside the Integer cache, so the boxed side pays for its Integers,
+ * much as Eg61PrimitiveType's Long sum does. The footprint is only as precise as Runtime's view
+ * of the heap.
+ */
+public class PrimitiveCollectionsBenchmark {
+    private static final int N = 1_000_000;
+    private static final int WARMUP = 3;
+    static volatile long sink;              // Keeps the work from being optimized away
+
+    interface Workload {
+        /** Builds the collection, for the footprint. */
+        Object build(int[] keys);
+
+        /** Builds, looks up and removes; returns a checksum. */
+        long run(int[] keys);
+    }
+
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static void measure(String name, int[] keys, Workload workload) {
+        for (int i = 0; i < WARMUP; i++)
+            sink += workload.run(keys);
+        long start = System.nanoTime();
+        sink += workload.run(keys);
+        long nanos = System.nanoTime() - start;
+
+        long before = usedHeap();
+        Object held = workload.build(keys);
+        long bytes = usedHeap() - before;
+        sink += held.hashCode();
+        System.out.format("%-28s %8.1f bytes/entry %10.1f ms%n", name, (double) bytes / keys.length, nanos / 1e6);
+    }
+
+    static Workload stack(boolean primitive) {
+        return new Workload() {
+            public Object build(int[] keys) {
+                if (primitive) {
+                    IntStack s = new IntStack();
+                    for (int k : keys)
+                        s.push(k);
+                    return s;
+                }
+                Deque<Integer> s = new ArrayDeque<>();
+                for (int k : keys)
+                    s.push(k);
+                return s;
+            }
+
+            public long run(int[] keys) {
+                long sum = 0;
+                if (primitive) {
+                    IntStack s = (IntStack) build(keys);
+                    while (!s.isEmpty())
+                        sum += s.pop();
+                } else {
+                    @SuppressWarnings("unchecked") Deque<Integer> s = (Deque<Integer>) build(keys);
+                    while (!s.isEmpty())
+                        sum += s.pop();
+                }
+                return sum;
+            }
+        };
+    }
+
+    static Workload list(boolean primitive) {
+        return new Workload() {
+            public Object build(int[] keys) {
+                if (primitive) {
+                    LongArrayList l = new LongArrayList();
+                    for (int k : keys)
+                        l.add(k);
+                    return l;
+                }
+                List<Long> l = new ArrayList<>();
+                for (int k : keys)
+                    l.add((long) k);
+                return l;
+            }
+
+            public long run(int[] keys) {
+                long sum = 0;
+                if (primitive) {
+                    LongArrayList l = (LongArrayList) build(keys);
+                    for (int i = 0; i < l.size(); i++)
+                        sum += l.get(i);
+                } else {
+                    @SuppressWarnings("unchecked") List<Long> l = (List<Long>) build(keys);
+                    for (int i = 0; i < l.size(); i++)
+                        sum += l.get(i);
+                }
+                return sum;
+            }
+        };
+    }
+
+    static Workload intIntMap(boolean primitive) {
+        return new Workload() {
+            public Object build(int[] keys) {
+                if (primitive) {
+                    IntIntHashMap m = new IntIntHashMap();
+                    for (int k : keys)
+                        m.put(k, k >>> 1);
+                    return m;
+                }
+                Map<Integer, Integer> m = new HashMap<>();
+                for (int k : keys)
+                    m.put(k, k >>> 1);
+                return m;
+            }
+
+            public long run(int[] keys) {
+                long sum = 0;
+                if (primitive) {
+                    IntIntHashMap m = (IntIntHashMap) build(keys);
+                    for (int k : keys)
+                        sum += m.get(k);
+                    for (int i = 0; i < keys.length; i += 2)
+                        m.remove(keys[i]);
+                    sum += m.size();
+                } else {
+                    @SuppressWarnings("unchecked") Map<Integer, Integer> m = (Map<Integer, Integer>) build(keys);
+                    for (int k : keys)
+                        sum += m.get(k);
+                    for (int i = 0; i < keys.length; i += 2)
+                        m.remove(keys[i]);
+                    sum += m.size();
+                }
+                return sum;
+            }
+        };
+    }
+
+    static Workload longSet(boolean primitive) {
+        return new Workload() {
+            public Object build(int[] keys) {
+                if (primitive) {
+                    LongHashSet s = new LongHashSet();
+                    for (int k : keys)
+                        s.add(k * 31L);
+                    return s;
+                }
+                Set<Long> s = new HashSet<>();
+                for (int k : keys)
+                    s.add(k * 31L);
+                return s;
+            }
+
+            public long run(int[] keys) {
+                long sum = 0;
+                if (primitive) {
+                    LongHashSet s = (LongHashSet) build(keys);
+                    for (int k : keys)
+                        sum += s.contains(k * 31L) ? 1 : 0;
+                    for (int i = 0; i < keys.length; i += 2)
+                        s.remove(keys[i] * 31L);
+                    sum += s.size();
+                } else {
+                    @SuppressWarnings("unchecked") Set<Long> s = (Set<Long>) build(keys);
+                    for (int k : keys)
+                        sum += s.contains(k * 31L) ? 1 : 0;
+                    for (int i = 0; i < keys.length; i += 2)
+                        s.remove(keys[i] * 31L);
+                    sum += s.size();
+                }
+                return sum;
+            }
+        };
+    }
+
+    static Workload intObjectMap(boolean primitive) {
+        final String value = "value";
+        return new Workload() {
+            public Object build(int[] keys) {
+                if (primitive) {
+                    IntObjectMap<String> m = new IntObjectMap<>();
+                    for (int k : keys)
+                        m.put(k, value);
+                    return m;
+                }
+                Map<Integer, String> m = new HashMap<>();
+                for (int k : keys)
+                    m.put(k, value);
+                return m;
+            }
+
+            public long run(int[] keys) {
+                long sum = 0;
+                if (primitive) {
+                    @SuppressWarnings("unchecked") IntObjectMap<String> m = (IntObjectMap<String>) build(keys);
+                    for (int k : keys)
+                        sum += m.get(k).length();
+                    for (int i = 0; i < keys.length; i += 2)
+                        m.remove(keys[i]);
+                    sum += m.size();
+                } else {
+                    @SuppressWarnings("unchecked") Map<Integer, String> m = (Map<Integer, String>) build(keys);
+                    for (int k : keys)
+                        sum += m.get(k).length();
+                    for (int i = 0; i < keys.length; i += 2)
+                        m.remove(keys[i]);
+                    sum += m.size();
+                }
+                return sum;
+            }
+        };
+    }
+
+    static int[] distinctKeys(int n) {
+        SplittableRandom random = new SplittableRandom(61);
+        LongHashSet seen = new LongHashSet(n);
+        int[] keys = new int[n];
+        for (int i = 0; i < n; ) {
+            int k = random.nextInt(1 << 20, Integer.MAX_VALUE);
+            if (seen.add(k))
+                keys[i++] = k;
+        }
+        return keys;
+    }
+
+    public static void main(String[] args) {
+        int[] keys = distinctKeys(N);
+        measure("ArrayDeque<Integer>", keys, stack(false));
+        measure("IntStack", keys, stack(true));
+        measure("ArrayList<Long>", keys, list(false));
+        measure("LongArrayList", keys, list(true));
+        measure("HashMap<Integer, Integer>", keys, intIntMap(false));
+        measure("IntIntHashMap", keys, intIntMap(true));
+        measure("HashSet<Long>", keys, longSet(false));
+        measure("LongHashSet", keys, longSet(true));
+        measure("HashMap<Integer, String>", keys, intObjectMap(false));
+        measure("IntObjectMap<String>", keys, intObjectMap(true));
+    }
+}
@@ -1,19 +1,24 @@
 package example.TimerDemo;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import jcip.examples.g6task_execution.executor.TimingWheelScheduler;
 
 public class TimerDemo {
     public static void main(String[] args) {
-        Timer timer = new Timer();
-        TimerTask task = new TimerTask() {
+        // java.util.Timer runs every task on its single thread and dies on the first uncaught
+        // exception; the timing wheel hands tasks to a pool and logs failures instead.
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        TimingWheelScheduler timer = new TimingWheelScheduler(10, TimeUnit.MILLISECONDS, workers);
+        Runnable task = new Runnable() {
             @Override
             public void run() {
                 System.out.println("TimerTask running!");
-                //this.cancel();
             }
         };
 
-        timer.schedule(task, 0, 2000);
+        timer.scheduleAtFixedRate(task, 0, 2000, TimeUnit.MILLISECONDS);
     }
 }
@@ -0,0 +1,62 @@
+package jcip.examples.g1introduction;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import jcip.annotations.*;
+
+/**
+ * BlockSequence
+ * <p/>
+ * Unique sequence numbers handed out from per-thread blocks instead of a global monitor
+ * <p/>
+ * Sequence takes the object's lock for every number, so all callers serialize on one monitor
+ * and one cache line. Here each thread reserves a block of blockSize numbers with a single
+ * getAndAdd on the shared counter and then serves getNext() from its own block without any
+ * synchronization. The shared counter is touched once per block, so contention drops by a
+ * factor of blockSize.
+ * <p/>
+ * Every value is still returned at most once, but values are no longer globally ordered:
+ * two threads interleave their blocks, and the unused tail of a block is lost when its thread
+ * dies. Use Sequence where callers depend on the order, and this class where only uniqueness
+ * matters (ids, keys, correlation numbers).
+ */
+@ThreadSafe
+public class BlockSequence {
+    private static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private final AtomicLong nextBlock = new AtomicLong();
+    private final int blockSize;
+    // {next, limit} of the calling thread's current block
+    private final ThreadLocal<long[]> block = new ThreadLocal<long[]>() {
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    public BlockSequence() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockSequence(int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("blockSize: " + blockSize);
+        this.blockSize = blockSize;
+    }
+
+    public long getNext() {
+        long[] b = block.get();
+        if (b[0] == b[1]) {
+            long start = nextBlock.getAndAdd(blockSize);
+            if (start < 0 || start > Long.MAX_VALUE - blockSize)
+                throw new IllegalStateException("sequence overflow");
+            b[0] = start;
+            b[1] = start + blockSize;
+        }
+        return b[0]++;
+    }
+
+    /** Upper bound on the numbers handed out so far, including unused block tails. */
+    public long getReserved() {
+        return nextBlock.get();
+    }
+}
@@ -0,0 +1,138 @@
+package jcip.examples.g2thread_safety.atomicity;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.*;
+
+import jcip.annotations.*;
+
+/**
+ * StripedCounter
+ * <p/>
+ * Statistics counter that spreads contended updates over padded cells, in the style of LongAdder
+ * <p/>
+ * CountingFactorizer's AtomicLong makes every request CAS the same cache line, so the line
+ * bounces between cores and the counter stops scaling long before the servlet does. Here
+ * uncontended updates still go to a single base field; the first failed CAS switches to an
+ * array of cells, each padded onto its own cache line, and a thread updates the cell its
+ * probe hashes to. A failed CAS on a cell moves the thread to another one by rehashing its probe,
+ * so two threads that collide do not keep colliding, and doubles the array, up to the next power
+ * of two above the number of CPUs. Growing copies cell references, never values, so no update is lost.
+ * <p/>
+ * sum() is not an atomic snapshot: updates made while it runs may or may not be included.
+ * That is fine for statistics, but the value must not be used to hand out unique ids
+ * (see BlockSequence for that).
+ */
+@ThreadSafe
+public class StripedCounter {
+    private static final int MAX_CELLS =
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+    // Per-thread hash, shared by every counter, like LongAdder's probe; never zero
+    private static final ThreadLocal<int[]> probe = new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            int h = ThreadLocalRandom.current().nextInt();
+            return new int[]{h == 0 ? 1 : h};
+        }
+    };
+
+    private final AtomicLong base = new AtomicLong();
+    private final AtomicBoolean resizing = new AtomicBoolean();
+    private volatile Cell[] cells;
+
+    @SuppressWarnings("unused")
+    static final class Cell {
+        private static final AtomicLongFieldUpdater<Cell> VALUE =
+                AtomicLongFieldUpdater.newUpdater(Cell.class, "value");
+
+        // Padding keeps neighbouring cells off this cache line (and off the adjacent one that gets prefetched)
+        long p0, p1, p2, p3, p4, p5, p6, p7;
+        volatile long value;
+        long q0, q1, q2, q3, q4, q5, q6, q7;
+
+        boolean cas(long expect, long update) {
+            return VALUE.compareAndSet(this, expect, update);
+        }
+
+        void add(long x) {
+            VALUE.getAndAdd(this, x);
+        }
+    }
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void decrement() {
+        add(-1L);
+    }
+
+    public void add(long x) {
+        Cell[] cs = cells;
+        if (cs == null) {
+            long b = base.get();
+            if (base.compareAndSet(b, b + x))
+                return;
+            cs = grow(null);
+        }
+        int[] h = probe.get();
+        Cell cell = cs[h[0] & (cs.length - 1)];
+        long v = cell.value;
+        if (!cell.cas(v, v + x)) {
+            cell.add(x);
+            rehash(h);
+            if (cs.length < MAX_CELLS)
+                grow(cs);
+        }
+    }
+
+    public long sum() {
+        long sum = base.get();
+        Cell[] cs = cells;
+        if (cs != null)
+            for (Cell cell : cs)
+                sum += cell.value;
+        return sum;
+    }
+
+    /** Number of cells in use, 0 while the counter has never been contended. */
+    public int stripes() {
+        Cell[] cs = cells;
+        return cs == null ? 0 : cs.length;
+    }
+
+    private Cell[] grow(Cell[] expected) {
+        for (;;) {
+            if (resizing.compareAndSet(false, true)) {
+                try {
+                    Cell[] cs = cells;
+                    if (cs == expected) {
+                        int n = cs == null ? 2 : cs.length << 1;
+                        Cell[] grown = new Cell[n];
+                        for (int i = 0; i < n; i++)
+                            grown[i] = (cs != null && i < cs.length) ? cs[i] : new Cell();
+                        cells = grown;
+                    }
+                } finally {
+                    resizing.set(false);
+                }
+            }
+            Cell[] cs = cells;
+            if (cs != null)
+                return cs;
+            Thread.onSpinWait(); // Another thread is creating the first table
+        }
+    }
+
+    private static void rehash(int[] h) {
+        // Marsaglia xorshift, as in LongAdder: a different cell next time, and never zero
+        int x = h[0];
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        h[0] = x;
+    }
+
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
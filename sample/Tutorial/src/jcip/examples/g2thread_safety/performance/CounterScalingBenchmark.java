@@ -0,0 +1,120 @@
+package jcip.examples.g2thread_safety.performance;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jcip.examples.g1introduction.BlockSequence;
+import jcip.examples.g1introduction.Sequence;
+import jcip.examples.g2thread_safety.atomicity.StripedCounter;
+import jcip.examples.g4composing_object.instance_confinement.Counter;
+
+/**
+ * CounterScalingBenchmark
+ * <p/>
+ * Measures how shared counters and sequences scale from 1 to 64 threads
+ * <p/>
+ * Every thread performs OPS_PER_THREAD updates on one shared instance, and the harness reports
+ * the aggregate rate. Counters: the synchronized Counter, AtomicLong (as in CountingFactorizer),
+ * LongAdder and StripedCounter. Sequences: the synchronized Sequence, AtomicLong.getAndIncrement
+ * and BlockSequence; the sequence runs also check that no number was handed out twice.
+ * <p/>
+ * The gap between single-location and striped updates only shows on a machine with several cores.
+ */
+public class CounterScalingBenchmark {
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int OPS_PER_THREAD = 100_000;
+    private static final int WARMUP = 2;
+
+    interface Contender {
+        /** Called once per measurement; returns the operation each thread runs OPS_PER_THREAD times. */
+        Op create();
+    }
+
+    interface Op {
+        void run(long[] seen, int offset);
+    }
+
+    static long time(int threads, Op op, long[] seen) throws InterruptedException {
+        CountDownLatch startGate = new CountDownLatch(1);
+        CountDownLatch endGate = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int offset = t * OPS_PER_THREAD;
+            new Thread(() -> {
+                try {
+                    startGate.await();
+                    for (int i = 0; i < OPS_PER_THREAD; i++)
+                        op.run(seen, offset + i);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    endGate.countDown();
+                }
+            }).start();
+        }
+        long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        return System.nanoTime() - start;
+    }
+
+    static void run(String name, Contender contender, boolean sequence) throws InterruptedException {
+        System.out.format("%-22s", name);
+        for (int threads : THREADS) {
+            long[] seen = sequence ? new long[threads * OPS_PER_THREAD] : null;
+            long nanos = 0;
+            for (int i = 0; i <= WARMUP; i++)
+                nanos = time(threads, contender.create(), seen);
+            if (sequence)
+                checkUnique(name, seen);
+            System.out.format(" %,9d", (long) threads * OPS_PER_THREAD * 1_000L / nanos);
+        }
+        System.out.println();
+    }
+
+    static void checkUnique(String name, long[] seen) {
+        long[] sorted = seen.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < sorted.length; i++)
+            if (sorted[i] == sorted[i - 1])
+                throw new AssertionError(name + " returned " + sorted[i] + " twice");
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.format("%-22s", "ops/us by threads");
+        for (int threads : THREADS)
+            System.out.format(" %9d", threads);
+        System.out.println();
+
+        run("synchronized Counter", () -> {
+            Counter c = new Counter();
+            return (seen, i) -> c.increment();
+        }, false);
+        run("AtomicLong", () -> {
+            AtomicLong c = new AtomicLong();
+            return (seen, i) -> c.incrementAndGet();
+        }, false);
+        run("LongAdder", () -> {
+            LongAdder c = new LongAdder();
+            return (seen, i) -> c.increment();
+        }, false);
+        run("StripedCounter", () -> {
+            StripedCounter c = new StripedCounter();
+            return (seen, i) -> c.increment();
+        }, false);
+
+        run("synchronized Sequence", () -> {
+            Sequence s = new Sequence();
+            return (seen, i) -> seen[i] = s.getNext();
+        }, true);
+        run("AtomicLong sequence", () -> {
+            AtomicLong s = new AtomicLong();
+            return (seen, i) -> seen[i] = s.getAndIncrement();
+        }, true);
+        run("BlockSequence", () -> {
+            BlockSequence s = new BlockSequence();
+            return (seen, i) -> seen[i] = s.getNext();
+        }, true);
+    }
+}
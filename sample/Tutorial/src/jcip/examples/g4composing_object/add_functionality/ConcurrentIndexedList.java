@@ -0,0 +1,171 @@
+package jcip.examples.g4composing_object.add_functionality;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import jcip.annotations.*;
+
+/**
+ * ConcurrentIndexedList
+ * <p/>
+ * Insertion-ordered list of distinct elements with put-if-absent that needs no list-wide lock
+ * <p/>
+ * BetterVector, ImprovedList and GoodListHelper make put-if-absent atomic by holding the list's
+ * lock across an O(n) contains scan, so filling a list with n distinct elements costs O(n^2)
+ * and only one thread makes progress at a time. Here a ConcurrentHashMap from element to
+ * position decides which caller wins, so put-if-absent is O(1) amortized and only contends with
+ * callers inserting an element in the same hash bin. The map only reserves the position; the
+ * winner then stores the element, outside the map's bin lock, in an append-only array made of
+ * chunks that double in size and are never copied or moved.
+ * <p/>
+ * Positions are reserved in order but may be filled out of order, so the list publishes a
+ * size that covers only the filled prefix: each writer, after filling its slot, advances the
+ * published size over every filled slot it finds. Whichever of two neighbouring writers finishes
+ * last sees the other's slot, so the size never stalls behind a filled slot. size(), get() and
+ * iteration see only the published prefix; an iterator fixes its end when it is created and
+ * then walks a stable snapshot without locking. contains() and indexOf() find the position in the
+ * map but report only published positions, and putIfAbsent, whether or not it appends, returns
+ * only once the element's position is published. So an element that putIfAbsent or contains()
+ * has reported present is always inside size() and readable with get(indexOf(x)).
+ * <p/>
+ * The list is append-only: add behaves as putIfAbsent (as Collection.add allows for collections
+ * that refuse duplicates) and the other mutators throw UnsupportedOperationException. Nulls are
+ * not permitted.
+ */
+@ThreadSafe
+public class ConcurrentIndexedList<E> extends AbstractList<E> implements RandomAccess {
+    private static final int FIRST_CHUNK_BITS = 4;
+    private static final int MAX_SIZE = 1 << 30;
+    private static final int MAX_CHUNKS = 31 - FIRST_CHUNK_BITS;
+
+    private final ConcurrentMap<E, Integer> index = new ConcurrentHashMap<E, Integer>();
+    private final AtomicReferenceArray<AtomicReferenceArray<E>> chunks =
+            new AtomicReferenceArray<AtomicReferenceArray<E>>(MAX_CHUNKS);
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicInteger published = new AtomicInteger();
+
+    public ConcurrentIndexedList() {
+    }
+
+    public ConcurrentIndexedList(Collection<? extends E> c) {
+        for (E e : c)
+            append(e);
+    }
+
+    /** Appends x unless an equal element is already present; returns true if x was appended. */
+    public boolean putIfAbsent(E x) {
+        return append(x);
+    }
+
+    private boolean append(E x) {
+        if (x == null)
+            throw new NullPointerException();
+        Integer existing = index.get(x);
+        if (existing != null) {
+            awaitPublished(existing);
+            return false;
+        }
+        final int[] claimed = {-1};
+        int pos = index.computeIfAbsent(x, e -> {
+            int p = reserved.getAndUpdate(n -> n < MAX_SIZE ? n + 1 : n);
+            if (p >= MAX_SIZE)
+                throw new IllegalStateException("list full");
+            return claimed[0] = p;
+        });
+        if (claimed[0] >= 0) {
+            chunkFor(pos).set(offset(pos), x);
+            advance();
+        }
+        awaitPublished(pos);
+        return claimed[0] >= 0;
+    }
+
+    public boolean add(E e) {
+        return putIfAbsent(e);
+    }
+
+    public E get(int i) {
+        if (i < 0 || i >= published.get())
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + published.get());
+        return chunks.get(chunk(i)).get(offset(i));
+    }
+
+    public int size() {
+        return published.get();
+    }
+
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    public int indexOf(Object o) {
+        if (o == null)
+            return -1;
+        Integer pos = index.get(o);
+        return pos == null || pos >= published.get() ? -1 : pos;
+    }
+
+    public int lastIndexOf(Object o) {
+        return indexOf(o);     // Elements are distinct
+    }
+
+    /** Iterates the elements published when the iterator was created, without locking. */
+    public Iterator<E> iterator() {
+        final int end = published.get();
+        return new Iterator<E>() {
+            private int next;
+
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            public E next() {
+                if (next >= end)
+                    throw new NoSuchElementException();
+                int i = next++;
+                return chunks.get(chunk(i)).get(offset(i));
+            }
+        };
+    }
+
+    /** Moves the published size over every filled slot directly after it. */
+    private void advance() {
+        int p;
+        while ((p = published.get()) < reserved.get()) {
+            AtomicReferenceArray<E> c = chunks.get(chunk(p));
+            if (c == null || c.get(offset(p)) == null)
+                return;             // Its writer is still filling it and will advance from there
+            published.compareAndSet(p, p + 1);
+        }
+    }
+
+    /** Waits for the writers of pos and of the positions before it, which are between reserving and advancing. */
+    private void awaitPublished(int pos) {
+        while (published.get() <= pos)
+            Thread.yield();
+    }
+
+    private AtomicReferenceArray<E> chunkFor(int pos) {
+        int k = chunk(pos);
+        AtomicReferenceArray<E> c = chunks.get(k);
+        if (c == null) {
+            chunks.compareAndSet(k, null, new AtomicReferenceArray<E>(1 << (k + FIRST_CHUNK_BITS)));
+            c = chunks.get(k);
+        }
+        return c;
+    }
+
+    // Chunk k holds positions [2^(k+b) - 2^b, 2^(k+b+1) - 2^b) where b = FIRST_CHUNK_BITS
+    private static int chunk(int pos) {
+        long q = (long) pos + (1 << FIRST_CHUNK_BITS);
+        return 63 - Long.numberOfLeadingZeros(q) - FIRST_CHUNK_BITS;
+    }
+
+    private static int offset(int pos) {
+        long q = (long) pos + (1 << FIRST_CHUNK_BITS);
+        return (int) (q - Long.highestOneBit(q));
+    }
+}
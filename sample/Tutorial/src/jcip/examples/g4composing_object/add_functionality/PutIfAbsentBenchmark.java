@@ -0,0 +1,126 @@
+package jcip.examples.g4composing_object.add_functionality;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * PutIfAbsentBenchmark
+ * <p/>
+ * Compares put-if-absent throughput of BetterVector and ImprovedList with ConcurrentIndexedList
+ * <p/>
+ * THREADS threads each call putIfAbsent OPS / threads times with keys drawn from KEYS distinct
+ * values, so the list fills up and later calls are mostly duplicates: the dedup-then-append path.
+ * The keys are drawn before the clock starts, and each run checks that the list ends up holding
+ * exactly the distinct keys drawn, each once. The lock-based
+ * helpers scan the list on every call, so their cost grows with KEYS; keep it moderate.
+ */
+public class PutIfAbsentBenchmark {
+    private static final int[] THREADS = {1, 2, 4, 8};
+    private static final int KEYS = 10_000;
+    private static final int OPS = 40_000;
+    private static final int WARMUP = 1;
+
+    interface Target {
+        boolean putIfAbsent(Integer x);
+
+        Collection<Integer> contents();
+    }
+
+    interface TargetFactory {
+        Target create();
+    }
+
+    static Target betterVector() {
+        BetterVector<Integer> v = new BetterVector<Integer>();
+        return new Target() {
+            public boolean putIfAbsent(Integer x) {
+                return v.putIfAbsent(x);
+            }
+
+            public Collection<Integer> contents() {
+                return v;
+            }
+        };
+    }
+
+    static Target improvedList() {
+        ImprovedList<Integer> l = new ImprovedList<Integer>(Collections.synchronizedList(new ArrayList<Integer>()));
+        return new Target() {
+            public boolean putIfAbsent(Integer x) {
+                return l.putIfAbsent(x);
+            }
+
+            public Collection<Integer> contents() {
+                return l;
+            }
+        };
+    }
+
+    static Target concurrentIndexedList() {
+        ConcurrentIndexedList<Integer> l = new ConcurrentIndexedList<Integer>();
+        return new Target() {
+            public boolean putIfAbsent(Integer x) {
+                return l.putIfAbsent(x);
+            }
+
+            public Collection<Integer> contents() {
+                return l;
+            }
+        };
+    }
+
+    static long time(int threads, Target target) throws InterruptedException {
+        CountDownLatch startGate = new CountDownLatch(1);
+        CountDownLatch endGate = new CountDownLatch(threads);
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        Set<Integer> drawn = new HashSet<Integer>();
+        for (int t = 0; t < threads; t++) {
+            Integer[] keys = new Integer[OPS / threads];
+            for (int i = 0; i < keys.length; i++)
+                drawn.add(keys[i] = rnd.nextInt(KEYS));
+            new Thread(() -> {
+                try {
+                    startGate.await();
+                    for (Integer key : keys)
+                        target.putIfAbsent(key);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    endGate.countDown();
+                }
+            }).start();
+        }
+        long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        long nanos = System.nanoTime() - start;
+        Collection<Integer> contents = target.contents();
+        if (new HashSet<Integer>(contents).size() != contents.size())
+            throw new AssertionError("duplicates after putIfAbsent");
+        if (!drawn.equals(new HashSet<Integer>(contents)))
+            throw new AssertionError("contents differ from the " + drawn.size() + " distinct keys drawn");
+        return nanos;
+    }
+
+    static void run(String name, TargetFactory factory) throws InterruptedException {
+        System.out.format("%-24s", name);
+        for (int threads : THREADS) {
+            long nanos = 0;
+            for (int i = 0; i <= WARMUP; i++)
+                nanos = time(threads, factory.create());
+            System.out.format(" %,12d", OPS * 1_000_000_000L / nanos);
+        }
+        System.out.println();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.format("%-24s", "ops/s by threads");
+        for (int threads : THREADS)
+            System.out.format(" %12d", threads);
+        System.out.println();
+        run("BetterVector", PutIfAbsentBenchmark::betterVector);
+        run("ImprovedList", PutIfAbsentBenchmark::improvedList);
+        run("ConcurrentIndexedList", PutIfAbsentBenchmark::concurrentIndexedList);
+    }
+}
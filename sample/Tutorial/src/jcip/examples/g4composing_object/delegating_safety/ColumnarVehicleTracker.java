@@ -0,0 +1,219 @@
+package jcip.examples.g4composing_object.delegating_safety;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jcip.annotations.*;
+
+/**
+ * ColumnarVehicleTracker
+ * <p/>
+ * Vehicle tracker with primitive position columns, batched writes and lock-free snapshots
+ * <p/>
+ * MonitorVehicleTracker copies every MutablePoint for every reader, DelegatingVehicleTracker
+ * allocates a Point per update, and PublishingVehicleTracker locks a SafePoint per update and
+ * cannot give a consistent view of more than one vehicle. Here vehicles are numbered once, at
+ * construction, and their positions live in int columns indexed by that number, cut into chunks
+ * of CHUNK vehicles with x and y interleaved. They are interleaved, not kept as separate xs and
+ * ys columns, because every move writes both: one shared chunk per move means one copy per move
+ * instead of two, and a single position read touches one cache line. A reader that walks the
+ * whole fleet still scans memory in order.
+ * <p/>
+ * Every write publishes a new immutable Snapshot with the next epoch number, copy-on-write:
+ * under a writer lock it copies the small table of chunk references and only the chunks it
+ * changes, and shares every other chunk with the previous snapshot. A setLocation is therefore
+ * visible as soon as it returns and costs O(CHUNK + n / CHUNK), not O(n): a clone of the chunk
+ * table and of one chunk, made while holding the single writer lock, so writers run one at a
+ * time. update(Batch) applies a whole batch as one epoch under one acquisition of that lock and
+ * copies each chunk it touches once. Readers just read the volatile snapshot reference, so they
+ * never block, never wait for writers and always see all vehicles as of the same epoch. Old
+ * snapshots stay valid for as long as a reader holds them; the garbage collector plays the part
+ * of the grace period that epoch-based reclamation would otherwise need.
+ * <p/>
+ * As with the book's trackers the set of vehicles is fixed; unknown ids are rejected.
+ */
+@ThreadSafe
+public class ColumnarVehicleTracker {
+    private static final int CHUNK_BITS = 8;
+    static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK - 1;
+
+    private final String[] ids;
+    private final Map<String, Integer> index;
+
+    // Serializes writers only; a writer's copies are private until it publishes them
+    private final Lock writeLock = new ReentrantLock();
+    private volatile Snapshot current;
+
+    public ColumnarVehicleTracker(Map<String, Point> points) {
+        int n = points.size();
+        ids = new String[n];
+        int[][] chunks = new int[(n + CHUNK - 1) >>> CHUNK_BITS][];
+        for (int c = 0; c < chunks.length; c++)
+            chunks[c] = new int[2 * Math.min(CHUNK, n - (c << CHUNK_BITS))];
+        Map<String, Integer> idx = new HashMap<String, Integer>(n * 4 / 3 + 1);
+        int i = 0;
+        for (Map.Entry<String, Point> e : points.entrySet()) {
+            ids[i] = e.getKey();
+            chunks[i >>> CHUNK_BITS][(i & CHUNK_MASK) << 1] = e.getValue().x;
+            chunks[i >>> CHUNK_BITS][((i & CHUNK_MASK) << 1) + 1] = e.getValue().y;
+            idx.put(e.getKey(), i++);
+        }
+        index = Collections.unmodifiableMap(idx);
+        current = new Snapshot(0, ids, index, chunks);
+    }
+
+    /** The latest published snapshot; never blocks. */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    public Point getLocation(String id) {
+        return current.getLocation(id);
+    }
+
+    public Map<String, Point> getLocations() {
+        return current.toMap();
+    }
+
+    /** Moves one vehicle and publishes the move as a new epoch before returning. */
+    public void setLocation(String id, int x, int y) {
+        int i = indexOf(id);
+        writeLock.lock();
+        try {
+            Snapshot prev = current;
+            int[][] chunks = prev.chunks.clone();
+            set(prev.chunks, chunks, i, x, y);
+            current = new Snapshot(prev.epoch + 1, ids, index, chunks);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Applies every update in the batch and publishes them together as one epoch. */
+    public Snapshot update(Batch batch) {
+        int n = batch.size;
+        int[] slots = new int[n];
+        for (int k = 0; k < n; k++)         // Resolve names before taking the lock
+            slots[k] = indexOf(batch.ids.get(k));
+        writeLock.lock();
+        try {
+            Snapshot prev = current;
+            int[][] chunks = prev.chunks.clone();
+            for (int k = 0; k < n; k++)
+                set(prev.chunks, chunks, slots[k], batch.xs[k], batch.ys[k]);
+            Snapshot next = new Snapshot(prev.epoch + 1, ids, index, chunks);
+            current = next;
+            return next;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Writes into chunks, first copying the vehicle's chunk if it is still shared with published. */
+    private static void set(int[][] published, int[][] chunks, int vehicle, int x, int y) {
+        int c = vehicle >>> CHUNK_BITS;
+        if (chunks[c] == published[c])
+            chunks[c] = published[c].clone();
+        int at = (vehicle & CHUNK_MASK) << 1;
+        chunks[c][at] = x;
+        chunks[c][at + 1] = y;
+    }
+
+    private int indexOf(String id) {
+        Integer i = index.get(id);
+        if (i == null)
+            throw new IllegalArgumentException("invalid vehicle name: " + id);
+        return i;
+    }
+
+    /**
+     * Positions of all vehicles as of one epoch. Chunks are never written once a snapshot
+     * holding them is published, so a Snapshot can be read from any thread without
+     * synchronization, and later snapshots can share its unchanged chunks.
+     */
+    @Immutable
+    public static final class Snapshot {
+        private final long epoch;
+        private final String[] ids;
+        private final Map<String, Integer> index;
+        private final int[][] chunks;
+
+        Snapshot(long epoch, String[] ids, Map<String, Integer> index, int[][] chunks) {
+            this.epoch = epoch;
+            this.ids = ids;
+            this.index = index;
+            this.chunks = chunks;
+        }
+
+        public long getEpoch() {
+            return epoch;
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        /** Dense vehicle number in [0, size()), or -1 for an unknown id. */
+        public int indexOf(String id) {
+            Integer i = index.get(id);
+            return i == null ? -1 : i;
+        }
+
+        public String getId(int vehicle) {
+            return ids[vehicle];
+        }
+
+        public int getX(int vehicle) {
+            return chunks[vehicle >>> CHUNK_BITS][(vehicle & CHUNK_MASK) << 1];
+        }
+
+        public int getY(int vehicle) {
+            return chunks[vehicle >>> CHUNK_BITS][((vehicle & CHUNK_MASK) << 1) + 1];
+        }
+
+        public Point getLocation(String id) {
+            int i = indexOf(id);
+            return i < 0 ? null : new Point(getX(i), getY(i));
+        }
+
+        public Map<String, Point> toMap() {
+            Map<String, Point> result = new HashMap<String, Point>(ids.length * 4 / 3 + 1);
+            for (int i = 0; i < ids.length; i++)
+                result.put(ids[i], new Point(getX(i), getY(i)));
+            return Collections.unmodifiableMap(result);
+        }
+    }
+
+    /** Updates collected by one writer and applied with a single publish. */
+    @NotThreadSafe
+    public static final class Batch {
+        private final List<String> ids = new ArrayList<String>();
+        private int[] xs = new int[16], ys = new int[16];
+        private int size;
+
+        public Batch add(String id, int x, int y) {
+            if (size == xs.length) {
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+            ids.add(id);
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            ids.clear();
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package jcip.examples.g4composing_object.delegating_safety;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jcip.annotations.*;
+
+import static jcip.examples.g4composing_object.delegating_safety.PackedNumberRange.lower;
+import static jcip.examples.g4composing_object.delegating_safety.PackedNumberRange.pack;
+import static jcip.examples.g4composing_object.delegating_safety.PackedNumberRange.upper;
+
+/**
+ * ConcurrentIntervalSet
+ * <p/>
+ * Set of ints stored as disjoint closed ranges, with lock-free lookups and compare-and-set updates
+ * <p/>
+ * The ranges are packed as in PackedNumberRange, one long per range, into a sorted array that is
+ * never modified once published. contains() binary-searches whatever array is current, so lookups
+ * never block and never see a half-applied update. add, remove and pollFirst build a new array
+ * from the current one and install it with compareAndSet, retrying if another writer got there
+ * first. Updates copy the array, so this suits sets with up to a few thousand ranges that are read
+ * far more often than they change: rate-limit windows, blocked id ranges, free lists of ids.
+ * <p/>
+ * Adjacent and overlapping ranges are merged, so add(1, 5) followed by add(6, 9) holds one range.
+ */
+@ThreadSafe
+public class ConcurrentIntervalSet {
+    private static final long[] EMPTY = new long[0];
+
+    private final AtomicReference<long[]> ranges = new AtomicReference<long[]>(EMPTY);
+
+    public boolean contains(int i) {
+        long[] rs = ranges.get();
+        int lo = 0, hi = rs.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long r = rs[mid];
+            if (i < lower(r))
+                hi = mid - 1;
+            else if (i > upper(r))
+                lo = mid + 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    /** Adds every int in [lower, upper]. */
+    public void add(int lower, int upper) {
+        checkRange(lower, upper);
+        for (;;) {
+            long[] current = ranges.get();
+            if (ranges.compareAndSet(current, added(current, lower, upper)))
+                return;
+        }
+    }
+
+    /** Removes every int in [lower, upper]. */
+    public void remove(int lower, int upper) {
+        checkRange(lower, upper);
+        for (;;) {
+            long[] current = ranges.get();
+            long[] next = removed(current, lower, upper);
+            if (next == current || ranges.compareAndSet(current, next))
+                return;
+        }
+    }
+
+    /** Removes and returns the smallest member, or null if the set is empty; for handing out free ids. */
+    public Integer pollFirst() {
+        for (;;) {
+            long[] current = ranges.get();
+            if (current.length == 0)
+                return null;
+            int first = lower(current[0]);
+            if (ranges.compareAndSet(current, removed(current, first, first)))
+                return first;
+        }
+    }
+
+    /** Number of disjoint ranges. */
+    public int rangeCount() {
+        return ranges.get().length;
+    }
+
+    /** Number of ints in the set. */
+    public long size() {
+        long n = 0;
+        for (long r : ranges.get())
+            n += (long) upper(r) - lower(r) + 1;
+        return n;
+    }
+
+    /** The ranges as of one instant, as {lower, upper} pairs in ascending order. */
+    public int[][] toArray() {
+        long[] rs = ranges.get();
+        int[][] result = new int[rs.length][];
+        for (int k = 0; k < rs.length; k++)
+            result[k] = new int[]{lower(rs[k]), upper(rs[k])};
+        return result;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (long r : ranges.get()) {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(lower(r)).append("..").append(upper(r));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static long[] added(long[] rs, int lower, int upper) {
+        long[] next = new long[rs.length + 1];
+        int n = 0, k = 0;
+        long lo = lower, hi = upper;
+        while (k < rs.length && upper(rs[k]) < lo - 1)      // Entirely below, not even adjacent
+            next[n++] = rs[k++];
+        while (k < rs.length && lower(rs[k]) <= hi + 1) {   // Overlapping or adjacent: merge
+            lo = Math.min(lo, lower(rs[k]));
+            hi = Math.max(hi, upper(rs[k]));
+            k++;
+        }
+        next[n++] = pack((int) lo, (int) hi);
+        while (k < rs.length)
+            next[n++] = rs[k++];
+        return n == next.length ? next : Arrays.copyOf(next, n);
+    }
+
+    private static long[] removed(long[] rs, int lower, int upper) {
+        long[] next = new long[rs.length + 1];
+        int n = 0;
+        boolean changed = false;
+        for (long r : rs) {
+            int a = lower(r), b = upper(r);
+            if (b < lower || a > upper) {
+                next[n++] = r;
+                continue;
+            }
+            changed = true;
+            if (a < lower)
+                next[n++] = pack(a, lower - 1);
+            if (b > upper)
+                next[n++] = pack(upper + 1, b);
+        }
+        if (!changed)
+            return rs;
+        return n == 0 ? EMPTY : Arrays.copyOf(next, n);
+    }
+
+    private static void checkRange(int lower, int upper) {
+        if (lower > upper)
+            throw new IllegalArgumentException("lower " + lower + " > upper " + upper);
+    }
+}
@@ -0,0 +1,279 @@
+package jcip.examples.g4composing_object.delegating_safety;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import jcip.annotations.*;
+
+/**
+ * NumberRangeBenchmark
+ * <p/>
+ * Contention benchmark for number ranges and interval sets
+ * <p/>
+ * Ranges: THREADS threads each run OPS operations on one shared range, one in WRITE_EVERY of them
+ * a setLower or setUpper to a random value in [0, MAX], the rest isInRange. Updates that would
+ * cross the other bound are rejected, so the harness also counts how often a writer then saw
+ * lower > upper, which only the unsafe NumberRange can produce (and only with real parallelism).
+ * Interval sets: the same mix of contains and add/remove on a set of RANGES ranges, against a
+ * synchronized TreeMap keyed by lower bound.
+ */
+public class NumberRangeBenchmark {
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+    private static final int OPS = 1_000_000;
+    private static final int WRITE_EVERY = 100;
+    private static final int RANGES = 1_000;
+    private static final int WARMUP = 2;
+    private static final int MAX = 10;
+
+    interface Range {
+        void setLower(int i);
+
+        void setUpper(int i);
+
+        boolean isInRange(int i);
+
+        /** True if lower > upper could be observed right now. */
+        boolean broken();
+    }
+
+    @ThreadSafe
+    static class SynchronizedNumberRange implements Range {
+        @GuardedBy("this") private int lower, upper;
+
+        public synchronized void setLower(int i) {
+            if (i > upper)
+                throw new IllegalArgumentException();
+            lower = i;
+        }
+
+        public synchronized void setUpper(int i) {
+            if (i < lower)
+                throw new IllegalArgumentException();
+            upper = i;
+        }
+
+        public synchronized boolean isInRange(int i) {
+            return i >= lower && i <= upper;
+        }
+
+        public synchronized boolean broken() {
+            return lower > upper;
+        }
+    }
+
+    static Range unsafe() {
+        NumberRange r = new NumberRange();
+        r.setUpper(MAX);
+        return new Range() {
+            public void setLower(int i) {
+                r.setLower(i);
+            }
+
+            public void setUpper(int i) {
+                r.setUpper(i);
+            }
+
+            public boolean isInRange(int i) {
+                return r.isInRange(i);
+            }
+
+            public boolean broken() {
+                // NumberRange cannot report its bounds, but a valid range always contains its lower bound
+                for (int i = 0; i <= MAX; i++)
+                    if (r.isInRange(i))
+                        return false;
+                return true;
+            }
+        };
+    }
+
+    static Range synchronizedRange() {
+        SynchronizedNumberRange r = new SynchronizedNumberRange();
+        r.setUpper(MAX);
+        return r;
+    }
+
+    static Range packed() {
+        PackedNumberRange r = new PackedNumberRange(0, MAX);
+        return new Range() {
+            public void setLower(int i) {
+                r.setLower(i);
+            }
+
+            public void setUpper(int i) {
+                r.setUpper(i);
+            }
+
+            public boolean isInRange(int i) {
+                return r.isInRange(i);
+            }
+
+            public boolean broken() {
+                int[] b = r.get();
+                return b[0] > b[1];
+            }
+        };
+    }
+
+    interface Workload {
+        /** Runs one thread's share; returns the number of anomalies it observed. */
+        long run();
+    }
+
+    interface RangeFactory {
+        Range create();
+    }
+
+    static Workload rangeWorkload(Range range) {
+        return () -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            long broken = 0;
+            for (int i = 0; i < OPS; i++) {
+                if (i % WRITE_EVERY == 0) {
+                    // Both bounds move within [0, MAX]; a checked update that would cross is rejected
+                    try {
+                        if (rnd.nextBoolean())
+                            range.setLower(rnd.nextInt(MAX + 1));
+                        else
+                            range.setUpper(rnd.nextInt(MAX + 1));
+                    } catch (IllegalArgumentException expected) {
+                    }
+                    if (range.broken())
+                        broken++;
+                } else {
+                    range.isInRange(rnd.nextInt(MAX + 1));
+                }
+            }
+            return broken;
+        };
+    }
+
+    interface IntervalSet {
+        boolean contains(int i);
+
+        void add(int lower, int upper);
+
+        void remove(int lower, int upper);
+    }
+
+    static IntervalSet concurrentIntervalSet() {
+        ConcurrentIntervalSet set = new ConcurrentIntervalSet();
+        return new IntervalSet() {
+            public boolean contains(int i) {
+                return set.contains(i);
+            }
+
+            public void add(int lower, int upper) {
+                set.add(lower, upper);
+            }
+
+            public void remove(int lower, int upper) {
+                set.remove(lower, upper);
+            }
+        };
+    }
+
+    /** Disjoint ranges keyed by lower bound; no merging, which only flatters it. */
+    static IntervalSet synchronizedTreeMap() {
+        TreeMap<Integer, Integer> map = new TreeMap<Integer, Integer>();
+        return new IntervalSet() {
+            public synchronized boolean contains(int i) {
+                Map.Entry<Integer, Integer> e = map.floorEntry(i);
+                return e != null && i <= e.getValue();
+            }
+
+            public synchronized void add(int lower, int upper) {
+                map.put(lower, upper);
+            }
+
+            public synchronized void remove(int lower, int upper) {
+                map.remove(lower);
+            }
+        };
+    }
+
+    interface IntervalSetFactory {
+        IntervalSet create();
+    }
+
+    static Workload intervalWorkload(IntervalSet set) {
+        return () -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            for (int i = 0; i < OPS; i++) {
+                // Slot k covers [10k, 10k + 4], so ranges never touch and the two sets hold the same members
+                int k = rnd.nextInt(RANGES);
+                if (i % WRITE_EVERY == 0) {
+                    if (rnd.nextBoolean())
+                        set.add(10 * k, 10 * k + 4);
+                    else
+                        set.remove(10 * k, 10 * k + 4);
+                } else {
+                    set.contains(10 * k + rnd.nextInt(10));
+                }
+            }
+            return 0;
+        };
+    }
+
+    static long[] time(int threads, Workload workload) throws InterruptedException {
+        CountDownLatch startGate = new CountDownLatch(1);
+        CountDownLatch endGate = new CountDownLatch(threads);
+        LongAdder anomalies = new LongAdder();
+        for (int t = 0; t < threads; t++)
+            new Thread(() -> {
+                try {
+                    startGate.await();
+                    anomalies.add(workload.run());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    endGate.countDown();
+                }
+            }).start();
+        long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        return new long[]{System.nanoTime() - start, anomalies.sum()};
+    }
+
+    static void runRange(String name, RangeFactory factory) throws InterruptedException {
+        System.out.format("%-24s", name);
+        for (int threads : THREADS) {
+            long[] result = null;
+            for (int i = 0; i <= WARMUP; i++)
+                result = time(threads, rangeWorkload(factory.create()));
+            System.out.format(" %,7d (%,d bad)", (long) threads * OPS * 1_000L / result[0], result[1]);
+        }
+        System.out.println();
+    }
+
+    static void runIntervals(String name, IntervalSetFactory factory) throws InterruptedException {
+        System.out.format("%-24s", name);
+        for (int threads : THREADS) {
+            long[] result = null;
+            for (int i = 0; i <= WARMUP; i++) {
+                IntervalSet set = factory.create();
+                for (int k = 0; k < RANGES; k += 2)
+                    set.add(10 * k, 10 * k + 4);
+                result = time(threads, intervalWorkload(set));
+            }
+            System.out.format(" %,16d", (long) threads * OPS * 1_000L / result[0]);
+        }
+        System.out.println();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.format("%-24s", "ops/us by threads");
+        for (int threads : THREADS)
+            System.out.format(" %16d", threads);
+        System.out.println();
+        runRange("NumberRange (unsafe)", NumberRangeBenchmark::unsafe);
+        runRange("synchronized", NumberRangeBenchmark::synchronizedRange);
+        runRange("PackedNumberRange", NumberRangeBenchmark::packed);
+        runIntervals("synchronized TreeMap", NumberRangeBenchmark::synchronizedTreeMap);
+        runIntervals("ConcurrentIntervalSet", NumberRangeBenchmark::concurrentIntervalSet);
+    }
+}
@@ -0,0 +1,185 @@
+package jcip.examples.g4composing_object.delegating_safety;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jcip.annotations.*;
+
+/**
+ * ObservableVehicleTracker
+ * <p/>
+ * Delegating vehicle tracker that pushes coalesced location changes to subscribers
+ * <p/>
+ * Polling getLocations() and diffing the result costs a full copy per poll even when only a few
+ * vehicles moved. Here each subscriber gets its own bounded buffer of pending changes, keyed by
+ * vehicle, so a vehicle that moves several times before the subscriber is served is delivered once,
+ * at its latest position. If a buffer would have to hold more than its capacity of distinct
+ * vehicles, it is discarded and the subscriber's next delivery is a full snapshot instead, so
+ * a slow subscriber costs bounded memory and still converges on the current state.
+ * <p/>
+ * A single dispatcher thread serves every subscriber: setLocation queues a subscriber at most
+ * once until it has been served, and the dispatcher hands over the whole buffer per delivery.
+ * Subscribers are stored as in VisualComponent, in a CopyOnWriteArrayList. Deliveries to one
+ * subscriber never overlap, but a slow listener delays everyone behind it, so listeners should
+ * hand heavy work off to their own executor.
+ */
+@ThreadSafe
+public class ObservableVehicleTracker {
+    private final ConcurrentMap<String, Point> locations;
+    private final Map<String, Point> unmodifiableMap;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+    private final BlockingQueue<Subscription> ready = new LinkedBlockingQueue<Subscription>();
+    private final Thread dispatcher = new Thread(new Runnable() {
+        public void run() {
+            dispatch();
+        }
+    }, "vehicle-change-dispatcher");
+
+    /** Receives batches of changes on the dispatcher thread. */
+    public interface LocationListener {
+        void locationsChanged(ChangeSet changes);
+    }
+
+    /** The changes delivered to one listener at a time. */
+    @Immutable
+    public static final class ChangeSet {
+        private final Map<String, Point> changes;
+        private final boolean snapshot;
+
+        ChangeSet(Map<String, Point> changes, boolean snapshot) {
+            this.changes = Collections.unmodifiableMap(changes);
+            this.snapshot = snapshot;
+        }
+
+        /** Latest position of every vehicle that moved since the previous delivery. */
+        public Map<String, Point> getChanges() {
+            return changes;
+        }
+
+        /**
+         * True if the subscriber fell too far behind (or just subscribed) and getChanges() holds
+         * every vehicle rather than only the ones that moved.
+         */
+        public boolean isSnapshot() {
+            return snapshot;
+        }
+    }
+
+    public final class Subscription {
+        private final LocationListener listener;
+        private final int capacity;
+        private final AtomicBoolean queued = new AtomicBoolean();
+        @GuardedBy("this") private Map<String, Point> pending = new HashMap<String, Point>();
+        @GuardedBy("this") private boolean overflowed = true;    // The first delivery is a snapshot
+        private volatile boolean cancelled;
+
+        Subscription(LocationListener listener, int capacity) {
+            this.listener = listener;
+            this.capacity = capacity;
+        }
+
+        void offer(String id) {
+            synchronized (this) {
+                if (overflowed)
+                    return;
+                // Re-read rather than trust the caller, so racing updates of one vehicle end on the latest
+                pending.put(id, locations.get(id));
+                if (pending.size() > capacity) {
+                    pending = new HashMap<String, Point>();
+                    overflowed = true;
+                }
+            }
+            schedule();
+        }
+
+        void schedule() {
+            if (!cancelled && queued.compareAndSet(false, true))
+                ready.add(this);
+        }
+
+        void deliver() {
+            queued.set(false);
+            if (cancelled)
+                return;
+            Map<String, Point> changes;
+            boolean snapshot;
+            synchronized (this) {
+                snapshot = overflowed;
+                changes = pending;
+                pending = new HashMap<String, Point>();
+                overflowed = false;
+            }
+            // Changes offered from now on go to the new buffer, so none fall between the snapshot and it
+            if (snapshot)
+                changes = new HashMap<String, Point>(locations);
+            if (!changes.isEmpty())
+                listener.locationsChanged(new ChangeSet(changes, snapshot));
+        }
+
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+    }
+
+    public ObservableVehicleTracker(Map<String, Point> points) {
+        locations = new ConcurrentHashMap<String, Point>(points);
+        unmodifiableMap = Collections.unmodifiableMap(locations);
+    }
+
+    public void start() {
+        dispatcher.start();
+    }
+
+    public void stop() {
+        dispatcher.interrupt();
+    }
+
+    public Map<String, Point> getLocations() {
+        return unmodifiableMap;
+    }
+
+    public Point getLocation(String id) {
+        return locations.get(id);
+    }
+
+    public void setLocation(String id, int x, int y) {
+        if (locations.replace(id, new Point(x, y)) == null)
+            throw new IllegalArgumentException("invalid vehicle name: " + id);
+        for (Subscription s : subscriptions)
+            s.offer(id);
+    }
+
+    /**
+     * Registers a listener whose first delivery is a snapshot of every vehicle, followed by
+     * coalesced changes. capacity bounds how many distinct vehicles may be pending for it.
+     */
+    public Subscription subscribe(LocationListener listener, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity: " + capacity);
+        Subscription s = new Subscription(listener, capacity);
+        subscriptions.add(s);
+        s.schedule();
+        return s;
+    }
+
+    private void dispatch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Subscription s = ready.take();
+                try {
+                    s.deliver();
+                } catch (RuntimeException e) {
+                    // A faulty listener must not stop deliveries to the others
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            /* Allow thread to exit */
+        }
+    }
+}
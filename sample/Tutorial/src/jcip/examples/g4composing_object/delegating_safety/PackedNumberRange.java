@@ -0,0 +1,105 @@
+package jcip.examples.g4composing_object.delegating_safety;
+
+import java.util.concurrent.atomic.*;
+
+import jcip.annotations.*;
+
+/**
+ * PackedNumberRange
+ * <p/>
+ * Number range that keeps both bounds in one AtomicLong so the invariant is checked and kept atomically
+ * <p/>
+ * NumberRange delegates to two independent AtomicIntegers, so setLower and setUpper can interleave
+ * and leave lower > upper. Synchronizing every method would fix that, but readers would then
+ * serialize on the lock too. Here lower and upper are packed into the high and low halves of a
+ * single long: every update is a compare-and-set loop that re-checks the invariant against the
+ * pair it read, and isInRange reads both bounds with one volatile load, without locking.
+ */
+@ThreadSafe
+public class PackedNumberRange {
+    // INVARIANT: lower <= upper
+    private final AtomicLong bounds;
+
+    public PackedNumberRange() {
+        this(0, 0);
+    }
+
+    public PackedNumberRange(int lower, int upper) {
+        if (lower > upper)
+            throw new IllegalArgumentException("lower " + lower + " > upper " + upper);
+        bounds = new AtomicLong(pack(lower, upper));
+    }
+
+    public int getLower() {
+        return lower(bounds.get());
+    }
+
+    public int getUpper() {
+        return upper(bounds.get());
+    }
+
+    /** Both bounds as of the same instant, as {lower, upper}. */
+    public int[] get() {
+        long b = bounds.get();
+        return new int[]{lower(b), upper(b)};
+    }
+
+    public void setLower(int i) {
+        for (;;) {
+            long b = bounds.get();
+            if (i > upper(b))
+                throw new IllegalArgumentException("can't set lower to " + i + " > upper");
+            if (bounds.compareAndSet(b, pack(i, upper(b))))
+                return;
+        }
+    }
+
+    public void setUpper(int i) {
+        for (;;) {
+            long b = bounds.get();
+            if (i < lower(b))
+                throw new IllegalArgumentException("can't set upper to " + i + " < lower");
+            if (bounds.compareAndSet(b, pack(lower(b), i)))
+                return;
+        }
+    }
+
+    /** Replaces both bounds at once. */
+    public void set(int lower, int upper) {
+        if (lower > upper)
+            throw new IllegalArgumentException("lower " + lower + " > upper " + upper);
+        bounds.set(pack(lower, upper));
+    }
+
+    /** Widens the range just enough to include i; a no-op if it already does. */
+    public void extendTo(int i) {
+        for (;;) {
+            long b = bounds.get();
+            long next = pack(Math.min(i, lower(b)), Math.max(i, upper(b)));
+            if (next == b || bounds.compareAndSet(b, next))
+                return;
+        }
+    }
+
+    public boolean isInRange(int i) {
+        long b = bounds.get();
+        return i >= lower(b) && i <= upper(b);
+    }
+
+    public String toString() {
+        long b = bounds.get();
+        return "[" + lower(b) + ", " + upper(b) + "]";
+    }
+
+    static long pack(int lower, int upper) {
+        return ((long) lower << 32) | (upper & 0xffffffffL);
+    }
+
+    static int lower(long bounds) {
+        return (int) (bounds >> 32);
+    }
+
+    static int upper(long bounds) {
+        return (int) bounds;
+    }
+}
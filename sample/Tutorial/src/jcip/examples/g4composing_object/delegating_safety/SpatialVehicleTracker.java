@@ -0,0 +1,263 @@
+package jcip.examples.g4composing_object.delegating_safety;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jcip.annotations.*;
+
+/**
+ * SpatialVehicleTracker
+ * <p/>
+ * Vehicle tracker with a concurrently updated grid index for range and nearest-neighbour queries
+ * <p/>
+ * Like DelegatingVehicleTracker, each vehicle's position is an immutable Point that setLocation
+ * replaces. Each vehicle is also filed in a cell of a uniform grid of cellSize x cellSize squares,
+ * kept in a ConcurrentHashMap keyed by cell coordinates, so a query only visits the cells that
+ * overlap its area instead of scanning getLocations(). A cell is mapped only while it holds a
+ * vehicle: filing and unfiling go through compute, so the cell that empties is removed atomically
+ * with its last vehicle and a concurrent move into it recreates it.
+ * <p/>
+ * setLocation holds the vehicle's own lock while it moves the vehicle: it files the vehicle in the
+ * new cell, then publishes the new Point, then removes it from the old cell. A vehicle is therefore
+ * always filed under the cell of its published position (and briefly under the previous one too),
+ * and queries check the published position rather than trusting cell membership. Updates to
+ * different vehicles contend only when they change cells, on a shared cell or map bin. Locations
+ * are handed out as copies, since java.awt.Point is mutable.
+ * <p/>
+ * Queries are weakly consistent, like ConcurrentHashMap iterators: each vehicle is reported at most
+ * once, at a position it actually held during the query, and every vehicle that stays inside the
+ * area for the whole query is reported. A vehicle that moves during the query may be missed.
+ */
+@ThreadSafe
+public class SpatialVehicleTracker {
+    private final int cellSize;
+    private final ConcurrentMap<String, Vehicle> vehicles = new ConcurrentHashMap<String, Vehicle>();
+    private final ConcurrentMap<Long, Set<Vehicle>> cells = new ConcurrentHashMap<Long, Set<Vehicle>>();
+
+    private static final class Vehicle {
+        final String id;
+        @GuardedBy("this") private long cell;
+        private volatile Point location;
+
+        Vehicle(String id) {
+            this.id = id;
+        }
+    }
+
+    /** A query result: a vehicle and its distance from the query point. */
+    @Immutable
+    public static final class Neighbor {
+        private final String id;
+        private final Point location;
+        private final double distance;
+
+        Neighbor(String id, Point location, double distance) {
+            this.id = id;
+            this.location = location;
+            this.distance = distance;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Point getLocation() {
+            return new Point(location);
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        public String toString() {
+            return id + "@(" + location.x + "," + location.y + ") d=" + String.format("%.1f", distance);
+        }
+    }
+
+    public SpatialVehicleTracker(Map<String, Point> points, int cellSize) {
+        if (cellSize < 1)
+            throw new IllegalArgumentException("cellSize: " + cellSize);
+        this.cellSize = cellSize;
+        for (Map.Entry<String, Point> e : points.entrySet()) {
+            Vehicle v = new Vehicle(e.getKey());
+            Point p = new Point(e.getValue());
+            synchronized (v) {
+                v.cell = cellOf(p.x, p.y);
+                v.location = p;
+                file(v.cell, v);
+            }
+            vehicles.put(v.id, v);
+        }
+    }
+
+    public Point getLocation(String id) {
+        Vehicle v = vehicles.get(id);
+        return v == null ? null : new Point(v.location);
+    }
+
+    public Map<String, Point> getLocations() {
+        Map<String, Point> result = new HashMap<String, Point>();
+        for (Vehicle v : vehicles.values())
+            result.put(v.id, new Point(v.location));
+        return Collections.unmodifiableMap(result);
+    }
+
+    public void setLocation(String id, int x, int y) {
+        Vehicle v = vehicles.get(id);
+        if (v == null)
+            throw new IllegalArgumentException("invalid vehicle name: " + id);
+        long cell = cellOf(x, y);
+        synchronized (v) {
+            long old = v.cell;
+            if (cell != old)
+                file(cell, v);
+            v.location = new Point(x, y);
+            if (cell != old) {
+                v.cell = cell;
+                unfile(old, v);
+            }
+        }
+    }
+
+    /** Vehicles inside the rectangle (edges included). */
+    public Map<String, Point> findWithin(Rectangle area) {
+        return findWithin(area.x, area.y, (long) area.x + area.width, (long) area.y + area.height);
+    }
+
+    /** Vehicles in [x0, x1] x [y0, y1]; the bounds are clamped to the int coordinates a vehicle can have. */
+    private Map<String, Point> findWithin(long x0, long y0, long x1, long y1) {
+        x0 = Math.max(x0, Integer.MIN_VALUE);
+        y0 = Math.max(y0, Integer.MIN_VALUE);
+        x1 = Math.min(x1, Integer.MAX_VALUE);
+        y1 = Math.min(y1, Integer.MAX_VALUE);
+        Map<String, Point> result = new HashMap<String, Point>();
+        long cx0 = Math.floorDiv(x0, cellSize), cx1 = Math.floorDiv(x1, cellSize);
+        long cy0 = Math.floorDiv(y0, cellSize), cy1 = Math.floorDiv(y1, cellSize);
+        // In double: the clamped area can span 2^64 cells
+        if ((double) (cx1 - cx0 + 1) * (cy1 - cy0 + 1) > cells.size()) {
+            // The area spans more cells than are occupied: visit the occupied ones instead
+            for (Set<Vehicle> set : cells.values())
+                collectWithin(set, x0, y0, x1, y1, result);
+        } else {
+            for (long cx = cx0; cx <= cx1; cx++)
+                for (long cy = cy0; cy <= cy1; cy++) {
+                    Set<Vehicle> set = cells.get(key(cx, cy));
+                    if (set != null)
+                        collectWithin(set, x0, y0, x1, y1, result);
+                }
+        }
+        return result;
+    }
+
+    /** Vehicles within radius of (x, y), nearest first. */
+    public List<Neighbor> findWithinRadius(int x, int y, double radius) {
+        // Any radius past 2^32 already covers every int coordinate
+        long r = (long) Math.ceil(Math.min(radius, 1L << 32));
+        Map<String, Point> box = findWithin(x - r, y - r, x + r, y + r);
+        List<Neighbor> result = new ArrayList<Neighbor>();
+        for (Map.Entry<String, Point> e : box.entrySet()) {
+            double d = e.getValue().distance(x, y);
+            if (d <= radius)
+                result.add(new Neighbor(e.getKey(), e.getValue(), d));
+        }
+        result.sort(BY_DISTANCE);
+        return result;
+    }
+
+    /**
+     * The k vehicles nearest to (x, y), nearest first. Searches rings of cells outwards from the
+     * cell containing (x, y) and stops once no unvisited cell can hold anything closer than the
+     * k-th best candidate so far.
+     */
+    public List<Neighbor> findNearest(int x, int y, int k) {
+        if (k < 1)
+            return Collections.emptyList();
+        PriorityQueue<Neighbor> best = new PriorityQueue<Neighbor>(k, BY_DISTANCE.reversed());
+        Set<String> seen = new HashSet<String>();
+        long cx = Math.floorDiv(x, cellSize), cy = Math.floorDiv(y, cellSize);
+        int occupied = cells.size();
+        for (long ring = 0; ; ring++) {
+            // Anything in this ring or beyond is at least this far away
+            double bound = ring == 0 ? 0 : (ring - 1) * (double) cellSize;
+            if (best.size() == k && best.peek().getDistance() < bound)
+                break;
+            long side = 2 * ring + 1;
+            if (side * side > 4L * occupied) {
+                // The search square now outgrows the occupied cells: finish with one pass over them
+                for (Set<Vehicle> set : cells.values())
+                    collectNearest(set, x, y, k, best, seen);
+                break;
+            }
+            for (long i = cx - ring; i <= cx + ring; i++) {
+                // Whole first and last columns of the ring, only the two end cells of the columns between
+                long step = (i == cx - ring || i == cx + ring) ? 1 : Math.max(1, 2 * ring);
+                for (long j = cy - ring; j <= cy + ring; j += step) {
+                    Set<Vehicle> set = cells.get(key(i, j));
+                    if (set != null)
+                        collectNearest(set, x, y, k, best, seen);
+                }
+            }
+        }
+        List<Neighbor> result = new ArrayList<Neighbor>(best);
+        result.sort(BY_DISTANCE);
+        return result;
+    }
+
+    private static final Comparator<Neighbor> BY_DISTANCE = new Comparator<Neighbor>() {
+        public int compare(Neighbor a, Neighbor b) {
+            return Double.compare(a.distance, b.distance);
+        }
+    };
+
+    private void collectWithin(Set<Vehicle> set, long x0, long y0, long x1, long y1, Map<String, Point> result) {
+        for (Vehicle v : set) {
+            Point p = v.location;
+            if (p.x >= x0 && p.x <= x1 && p.y >= y0 && p.y <= y1 && !result.containsKey(v.id))
+                result.put(v.id, new Point(p));
+        }
+    }
+
+    private static void collectNearest(Set<Vehicle> set, int x, int y, int k,
+                                       PriorityQueue<Neighbor> best, Set<String> seen) {
+        for (Vehicle v : set) {
+            if (!seen.add(v.id))
+                continue;
+            Point p = v.location;
+            double d = p.distance(x, y);
+            if (best.size() < k) {
+                best.add(new Neighbor(v.id, p, d));
+            } else if (d < best.peek().getDistance()) {
+                best.poll();
+                best.add(new Neighbor(v.id, p, d));
+            }
+        }
+    }
+
+    private void file(long cell, final Vehicle v) {
+        cells.compute(cell, (c, set) -> {
+            if (set == null)
+                set = ConcurrentHashMap.newKeySet();
+            set.add(v);
+            return set;
+        });
+    }
+
+    /** Removes v from its cell, and the cell from the map if v was the last vehicle in it. */
+    private void unfile(long cell, final Vehicle v) {
+        cells.computeIfPresent(cell, (c, set) -> {
+            set.remove(v);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private long cellOf(int x, int y) {
+        return key(Math.floorDiv(x, cellSize), Math.floorDiv(y, cellSize));
+    }
+
+    private static long key(long cx, long cy) {
+        return (cx << 32) | (cy & 0xffffffffL);
+    }
+}
@@ -0,0 +1,217 @@
+package jcip.examples.g4composing_object.delegating_safety;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import jcip.examples.g4composing_object.instance_confinement.MonitorVehicleTracker;
+import jcip.examples.g4composing_object.instance_confinement.MutablePoint;
+import jcip.examples.g4composing_object.instance_confinement.SafePoint;
+
+/**
+ * VehicleTrackerBenchmark
+ * <p/>
+ * Compares the book's vehicle trackers with ColumnarVehicleTracker under mixed load
+ * <p/>
+ * VEHICLES vehicles are tracked; WRITERS threads move random vehicles as fast as they can while
+ * READERS threads repeatedly take a view of the whole fleet and sum every coordinate, the way a
+ * map display would. Each tracker runs for RUN_MILLIS after a warmup run, and the harness reports
+ * position updates and full-fleet reads per second. ColumnarVehicleTracker runs twice: once with
+ * its writers applying their moves in batches of BATCH, once with one setLocation per move.
+ * <p/>
+ * Only MonitorVehicleTracker (by copying) and ColumnarVehicleTracker (by epoch) give readers a
+ * consistent view; the delegating trackers let a reader see some vehicles before and some after
+ * a concurrent update.
+ */
+public class VehicleTrackerBenchmark {
+    private static final int VEHICLES = 100_000;
+    private static final int WRITERS = 2;
+    private static final int READERS = 2;
+    private static final int BATCH = 1_000;
+    private static final long RUN_MILLIS = 1_000;
+    static volatile long sink;          // Keeps the reads from being optimized away
+
+    /** What the harness needs from every tracker. */
+    interface Tracker {
+        /** Performs a batch of random moves and returns how many it did. */
+        int move(String[] ids);
+
+        /** Reads every vehicle's position once. */
+        long readAll();
+    }
+
+    static String[] names() {
+        String[] ids = new String[VEHICLES];
+        for (int i = 0; i < VEHICLES; i++)
+            ids[i] = "v" + i;
+        return ids;
+    }
+
+    static Tracker monitor(String[] ids) {
+        Map<String, MutablePoint> initial = new HashMap<String, MutablePoint>();
+        for (String id : ids)
+            initial.put(id, new MutablePoint());
+        MonitorVehicleTracker tracker = new MonitorVehicleTracker(initial);
+        return new Tracker() {
+            public int move(String[] ids) {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int k = 0; k < BATCH; k++)
+                    tracker.setLocation(ids[r.nextInt(ids.length)], r.nextInt(1000), r.nextInt(1000));
+                return BATCH;
+            }
+
+            public long readAll() {
+                long sum = 0;
+                for (MutablePoint p : tracker.getLocations().values())
+                    sum += p.x + p.y;
+                return sum;
+            }
+        };
+    }
+
+    static Tracker delegating(String[] ids) {
+        Map<String, Point> initial = new HashMap<String, Point>();
+        for (String id : ids)
+            initial.put(id, new Point());
+        DelegatingVehicleTracker tracker = new DelegatingVehicleTracker(initial);
+        return new Tracker() {
+            public int move(String[] ids) {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int k = 0; k < BATCH; k++)
+                    tracker.setLocation(ids[r.nextInt(ids.length)], r.nextInt(1000), r.nextInt(1000));
+                return BATCH;
+            }
+
+            public long readAll() {
+                long sum = 0;
+                for (Point p : tracker.getLocations().values())
+                    sum += p.x + p.y;
+                return sum;
+            }
+        };
+    }
+
+    static Tracker publishing(String[] ids) {
+        Map<String, SafePoint> initial = new HashMap<String, SafePoint>();
+        for (String id : ids)
+            initial.put(id, new SafePoint(0, 0));
+        PublishingVehicleTracker tracker = new PublishingVehicleTracker(initial);
+        return new Tracker() {
+            public int move(String[] ids) {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int k = 0; k < BATCH; k++)
+                    tracker.setLocation(ids[r.nextInt(ids.length)], r.nextInt(1000), r.nextInt(1000));
+                return BATCH;
+            }
+
+            public long readAll() {
+                long sum = 0;
+                for (SafePoint p : tracker.getLocations().values()) {
+                    int[] xy = p.get();
+                    sum += xy[0] + xy[1];
+                }
+                return sum;
+            }
+        };
+    }
+
+    static Tracker columnar(String[] ids) {
+        Map<String, Point> initial = new HashMap<String, Point>();
+        for (String id : ids)
+            initial.put(id, new Point());
+        ColumnarVehicleTracker tracker = new ColumnarVehicleTracker(initial);
+        ThreadLocal<ColumnarVehicleTracker.Batch> batches = ThreadLocal.withInitial(ColumnarVehicleTracker.Batch::new);
+        return new Tracker() {
+            public int move(String[] ids) {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                ColumnarVehicleTracker.Batch batch = batches.get();
+                batch.clear();
+                for (int k = 0; k < BATCH; k++)
+                    batch.add(ids[r.nextInt(ids.length)], r.nextInt(1000), r.nextInt(1000));
+                tracker.update(batch);
+                return BATCH;
+            }
+
+            public long readAll() {
+                ColumnarVehicleTracker.Snapshot s = tracker.snapshot();
+                long sum = 0;
+                for (int i = 0, n = s.size(); i < n; i++)
+                    sum += s.getX(i) + s.getY(i);
+                return sum;
+            }
+        };
+    }
+
+    static Tracker columnarSingle(String[] ids) {
+        Map<String, Point> initial = new HashMap<String, Point>();
+        for (String id : ids)
+            initial.put(id, new Point());
+        ColumnarVehicleTracker tracker = new ColumnarVehicleTracker(initial);
+        return new Tracker() {
+            public int move(String[] ids) {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                for (int k = 0; k < BATCH; k++)
+                    tracker.setLocation(ids[r.nextInt(ids.length)], r.nextInt(1000), r.nextInt(1000));
+                return BATCH;
+            }
+
+            public long readAll() {
+                ColumnarVehicleTracker.Snapshot s = tracker.snapshot();
+                long sum = 0;
+                for (int i = 0, n = s.size(); i < n; i++)
+                    sum += s.getX(i) + s.getY(i);
+                return sum;
+            }
+        };
+    }
+
+    static long[] measure(Tracker tracker, String[] ids) throws InterruptedException {
+        AtomicBoolean done = new AtomicBoolean();
+        LongAdder moves = new LongAdder();
+        LongAdder reads = new LongAdder();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < WRITERS; i++)
+            threads.add(new Thread(() -> {
+                while (!done.get())
+                    moves.add(tracker.move(ids));
+            }));
+        for (int i = 0; i < READERS; i++)
+            threads.add(new Thread(() -> {
+                long sum = 0;
+                while (!done.get()) {
+                    sum += tracker.readAll();
+                    reads.increment();
+                }
+                sink = sum;
+            }));
+        for (Thread t : threads)
+            t.start();
+        Thread.sleep(RUN_MILLIS);
+        done.set(true);
+        for (Thread t : threads)
+            t.join();
+        return new long[]{moves.sum() * 1000 / RUN_MILLIS, reads.sum() * 1000 / RUN_MILLIS};
+    }
+
+    interface TrackerFactory {
+        Tracker create(String[] ids);
+    }
+
+    static void run(String name, TrackerFactory factory, String[] ids) throws InterruptedException {
+        measure(factory.create(ids), ids);     // warmup
+        long[] rates = measure(factory.create(ids), ids);
+        System.out.format("%-26s %,14d updates/s %,10d full reads/s%n", name, rates[0], rates[1]);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] ids = names();
+        run("MonitorVehicleTracker", VehicleTrackerBenchmark::monitor, ids);
+        run("DelegatingVehicleTracker", VehicleTrackerBenchmark::delegating, ids);
+        run("PublishingVehicleTracker", VehicleTrackerBenchmark::publishing, ids);
+        run("ColumnarVehicleTracker", VehicleTrackerBenchmark::columnar, ids);
+        run("Columnar, setLocation", VehicleTrackerBenchmark::columnarSingle, ids);
+    }
+}
@@ -0,0 +1,382 @@
+package jcip.examples.g5build_block.concurrent_collection;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import jcip.annotations.*;
+
+/**
+ * FlowPipeline
+ * <p/>
+ * Producer-consumer pipelines on java.util.concurrent.Flow with demand-driven backpressure
+ * <p/>
+ * ProducerConsumer bounds the work in flight with a BlockingQueue and parks a thread on each end
+ * (ProducerConsumer.startIndexing(roots, executor) is the same application on a pipeline).
+ * Here a source only produces what downstream has requested, and each Stage runs its function on
+ * up to parallelism pool threads while holding at most bufferSize items. A Stage does not ask for
+ * more one item at a time: it calls request(n) once half its buffer has drained, and every drain
+ * pass emits as many items as there is demand for, so the signalling cost is shared by a batch.
+ * <p/>
+ * Sources and stages are unicast: each accepts a single subscriber.
+ */
+public class FlowPipeline {
+
+    /**
+     * IteratorPublisher
+     * <p/>
+     * Publishes the elements of an iterator, pulling only as many as have been requested
+     */
+    @ThreadSafe
+    public static class IteratorPublisher<T> implements Flow.Publisher<T> {
+        private final Iterator<? extends T> iterator;
+        private final Executor executor;
+        private final AtomicBoolean subscribed = new AtomicBoolean();
+
+        public IteratorPublisher(Iterator<? extends T> iterator, Executor executor) {
+            this.iterator = iterator;
+            this.executor = executor;
+        }
+
+        public void subscribe(Flow.Subscriber<? super T> subscriber) {
+            if (!subscribed.compareAndSet(false, true)) {
+                subscriber.onSubscribe(CANCELLED);
+                subscriber.onError(new IllegalStateException("IteratorPublisher allows one subscriber"));
+                return;
+            }
+            subscriber.onSubscribe(new IteratorSubscription(subscriber));
+        }
+
+        private class IteratorSubscription implements Flow.Subscription, Runnable {
+            private final Flow.Subscriber<? super T> subscriber;
+            private final AtomicLong requested = new AtomicLong();
+            private final AtomicInteger wip = new AtomicInteger();
+            private volatile boolean cancelled;
+            private volatile Throwable badRequest;
+
+            IteratorSubscription(Flow.Subscriber<? super T> subscriber) {
+                this.subscriber = subscriber;
+            }
+
+            public void request(long n) {
+                // Rule 3.9: signal onError, but from the emitting loop, never alongside an onNext
+                if (n <= 0)
+                    badRequest = new IllegalArgumentException("request(" + n + ")");
+                else
+                    addCapped(requested, n);
+                if (wip.getAndIncrement() == 0)
+                    executor.execute(this);
+            }
+
+            public void cancel() {
+                cancelled = true;
+            }
+
+            public void run() {
+                int missed = 1;
+                do {
+                    Throwable bad = badRequest;
+                    if (bad != null && !cancelled) {
+                        cancelled = true;
+                        subscriber.onError(bad);
+                        return;
+                    }
+                    long r = requested.get();
+                    long emitted = 0;
+                    while (emitted != r && !cancelled && badRequest == null) {
+                        T next;
+                        try {
+                            if (!iterator.hasNext()) {
+                                cancelled = true;
+                                subscriber.onComplete();
+                                return;
+                            }
+                            next = iterator.next();
+                        } catch (Throwable t) {
+                            cancelled = true;
+                            subscriber.onError(t);
+                            return;
+                        }
+                        subscriber.onNext(next);
+                        emitted++;
+                    }
+                    if (emitted != 0 && r != Long.MAX_VALUE)
+                        requested.addAndGet(-emitted);
+                    missed = wip.addAndGet(-missed);
+                } while (missed != 0);
+            }
+        }
+    }
+
+    /**
+     * Stage
+     * <p/>
+     * Processor applying a function on up to parallelism threads; a null result emits nothing
+     * <p/>
+     * With parallelism above one, results are emitted in completion order, not arrival order.
+     */
+    @ThreadSafe
+    public static class Stage<T, R> implements Flow.Processor<T, R> {
+        private final Function<? super T, ? extends R> fn;
+        private final Executor executor;
+        private final int parallelism;
+        private final int bufferSize;
+        private final int batch;
+
+        private final Queue<T> inputs = new ConcurrentLinkedQueue<T>();
+        private final Queue<R> outputs = new ConcurrentLinkedQueue<R>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger consumed = new AtomicInteger();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicReference<Flow.Subscriber<? super R>> downstream =
+                new AtomicReference<Flow.Subscriber<? super R>>();
+        private volatile Flow.Subscription upstream;
+        private volatile boolean upstreamDone;
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private boolean terminated;  // Only touched inside drain()
+
+        public Stage(Function<? super T, ? extends R> fn, Executor executor, int parallelism, int bufferSize) {
+            if (parallelism < 1 || bufferSize < 1)
+                throw new IllegalArgumentException();
+            this.fn = fn;
+            this.executor = executor;
+            this.parallelism = parallelism;
+            this.bufferSize = bufferSize;
+            this.batch = Math.max(1, bufferSize / 2);
+        }
+
+        public void subscribe(Flow.Subscriber<? super R> subscriber) {
+            if (!downstream.compareAndSet(null, subscriber)) {
+                subscriber.onSubscribe(CANCELLED);
+                subscriber.onError(new IllegalStateException("Stage allows one subscriber"));
+                return;
+            }
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {
+                    if (n <= 0) {
+                        fail(new IllegalArgumentException("request(" + n + ")")); // Delivered by drain()
+                        return;
+                    }
+                    addCapped(requested, n);
+                    drain();
+                }
+
+                public void cancel() {
+                    cancelled = true;
+                    Flow.Subscription s = upstream;
+                    if (s != null)
+                        s.cancel();
+                    drain();
+                }
+            });
+            drain();
+        }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            subscription.request(bufferSize);
+        }
+
+        public void onNext(T item) {
+            inputs.add(item);
+            drain();
+        }
+
+        public void onError(Throwable t) {
+            error = t;
+            upstreamDone = true;
+            drain();
+        }
+
+        public void onComplete() {
+            upstreamDone = true;
+            drain();
+        }
+
+        private void fail(Throwable t) {
+            if (error == null)
+                error = t;
+            Flow.Subscription s = upstream;
+            if (s != null)
+                s.cancel();
+            drain();
+        }
+
+        // One instance shared by every worker thread; it keeps no state of its own
+        private final Runnable worker = new Runnable() {
+            public void run() {
+                try {
+                    T item;
+                    while (!cancelled && error == null && (item = inputs.poll()) != null) {
+                        R result;
+                        try {
+                            result = fn.apply(item);
+                        } catch (Throwable t) {
+                            fail(t);
+                            return;
+                        }
+                        if (result != null)
+                            outputs.add(result);
+                        else
+                            consumed.incrementAndGet();
+                        drain();
+                    }
+                } finally {
+                    active.decrementAndGet();
+                    drain();
+                }
+            }
+        };
+
+        /** Serialized by wip: whichever thread gets it from 0 to 1 does the work for everyone. */
+        private void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            do {
+                Flow.Subscriber<? super R> d = downstream.get();
+                if (cancelled || terminated) {
+                    inputs.clear();
+                    outputs.clear();
+                } else if (error != null) {
+                    // Kept until there is a downstream: subscribe() drains again and delivers it
+                    if (d != null) {
+                        terminated = true;
+                        d.onError(error);
+                    }
+                } else {
+                    int a;
+                    while (!inputs.isEmpty() && (a = active.get()) < parallelism) {
+                        if (!active.compareAndSet(a, a + 1))
+                            continue;
+                        try {
+                            executor.execute(worker);
+                        } catch (RejectedExecutionException e) {
+                            active.decrementAndGet();
+                            fail(e);        // Its drain() only bumps wip, so the loop comes round to deliver it
+                            break;
+                        }
+                    }
+                    if (d != null) {
+                        long r = requested.get();
+                        long emitted = 0;
+                        R item;
+                        while (emitted != r && (item = outputs.poll()) != null) {
+                            d.onNext(item);
+                            emitted++;
+                        }
+                        if (emitted != 0) {
+                            if (r != Long.MAX_VALUE)
+                                requested.addAndGet(-emitted);
+                            consumed.addAndGet((int) emitted);
+                        }
+                        if (upstreamDone && inputs.isEmpty() && active.get() == 0 && outputs.isEmpty()) {
+                            terminated = true;
+                            d.onComplete();
+                        }
+                    }
+                    int c = consumed.get();
+                    Flow.Subscription s = upstream;
+                    if (c >= batch && s != null && !upstreamDone) {
+                        consumed.addAndGet(-c);
+                        s.request(c);
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    /** Runs action on every element with the given parallelism; the future completes when the source does. */
+    public static <T> CompletableFuture<Void> forEach(Flow.Publisher<T> source, Executor executor,
+                                                      int parallelism, int bufferSize,
+                                                      final Consumer<? super T> action) {
+        Stage<T, Object> sink = new Stage<T, Object>(new Function<T, Object>() {
+            public Object apply(T t) {
+                action.accept(t);
+                return null;
+            }
+        }, executor, parallelism, bufferSize);
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        sink.subscribe(new Flow.Subscriber<Object>() {
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            public void onNext(Object item) {
+            }
+
+            public void onError(Throwable t) {
+                done.completeExceptionally(t);
+            }
+
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        source.subscribe(sink);
+        return done;
+    }
+
+    private static final Flow.Subscription CANCELLED = new Flow.Subscription() {
+        public void request(long n) {
+        }
+
+        public void cancel() {
+        }
+    };
+
+    private static void addCapped(AtomicLong requested, long n) {
+        long r, u;
+        do {
+            r = requested.get();
+            if (r == Long.MAX_VALUE)
+                return;
+            u = r + n;
+            if (u < 0)
+                u = Long.MAX_VALUE;
+        } while (!requested.compareAndSet(r, u));
+    }
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() + 1);
+        ProducerConsumer.startIndexing(new File[]{new File(args.length > 0 ? args[0] : ".")}, executor).get();
+
+        // Two stages: parse with parallelism 4, then sum in a single-threaded sink
+        final AtomicLong sum = new AtomicLong();
+        Iterator<Integer> numbers = new Iterator<Integer>() {
+            int i = 0;
+
+            public boolean hasNext() {
+                return i < 1_000_000;
+            }
+
+            public Integer next() {
+                return i++;
+            }
+        };
+        Stage<Integer, String> format = new Stage<Integer, String>(new Function<Integer, String>() {
+            public String apply(Integer i) {
+                return Integer.toString(i);
+            }
+        }, executor, 4, 256);
+        new IteratorPublisher<Integer>(numbers, executor).subscribe(format);
+        long start = System.nanoTime();
+        forEach(format, executor, 1, 256, new Consumer<String>() {
+            public void accept(String s) {
+                sum.addAndGet(Long.parseLong(s));
+            }
+        }).get();
+        System.out.println(String.format("sum=%d in %dms", sum.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        executor.shutdown();
+    }
+}
@@ -2,7 +2,9 @@ package jcip.examples.g5build_block.concurrent_collection;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 
 /**
  * ConcurrentHashMap, a replacement for synchronized hashͲbased Map implementations, and CopyOnWriteArrayList, a
@@ -80,6 +82,51 @@ public class ProducerConsumer {
                         fileQueue.put(entry);
             }
         }
+
+        /**
+         * The files crawl() would queue, in the same order, as a lazy walk: a directory is listed
+         * only when the caller's demand reaches it, so no queue or thread is needed.
+         */
+        Iterator<File> iterator() {
+            return new Iterator<File>() {
+                private final Deque<Iterator<File>> dirs = new ArrayDeque<Iterator<File>>();
+                private File next;
+
+                {
+                    push(root);
+                }
+
+                private void push(File dir) {
+                    File[] entries = dir.listFiles(fileFilter);
+                    if (entries != null)
+                        dirs.push(Arrays.asList(entries).iterator());
+                }
+
+                public boolean hasNext() {
+                    while (next == null && !dirs.isEmpty()) {
+                        Iterator<File> entries = dirs.peek();
+                        if (!entries.hasNext()) {
+                            dirs.pop();
+                            continue;
+                        }
+                        File entry = entries.next();
+                        if (entry.isDirectory())
+                            push(entry);
+                        else if (!alreadyIndexed(entry))
+                            next = entry;
+                    }
+                    return next != null;
+                }
+
+                public File next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    File f = next;
+                    next = null;
+                    return f;
+                }
+            };
+        }
     }
 
     static class Indexer implements Runnable {
@@ -120,4 +167,41 @@ public class ProducerConsumer {
         for (int i = 0; i < N_CONSUMERS; i++)
             new Thread(new Indexer(queue)).start();
     }
+
+    /**
+     * startIndexing as a FlowPipeline: the crawlers' walks are the source and the Indexer a parallel
+     * sink, with the same BOUND on files in flight but no thread parked on either end of a queue.
+     * The future completes once every file has been indexed.
+     */
+    public static CompletableFuture<Void> startIndexing(final File[] roots, Executor executor) {
+        final FileFilter filter = new FileFilter() {
+            public boolean accept(File file) {
+                return true;
+            }
+        };
+        Iterator<File> files = new Iterator<File>() {
+            private int root;
+            private Iterator<File> current = Collections.<File>emptyIterator();
+
+            public boolean hasNext() {
+                while (!current.hasNext() && root < roots.length)
+                    current = new FileCrawler(null, filter, roots[root++]).iterator();
+                return current.hasNext();
+            }
+
+            public File next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+        // The Indexer's own queue is unused; the pipeline hands it files directly
+        final Indexer indexer = new Indexer(null);
+        return FlowPipeline.forEach(new FlowPipeline.IteratorPublisher<File>(files, executor),
+                executor, N_CONSUMERS, BOUND, new Consumer<File>() {
+                    public void accept(File file) {
+                        indexer.indexFile(file);
+                    }
+                });
+    }
 }
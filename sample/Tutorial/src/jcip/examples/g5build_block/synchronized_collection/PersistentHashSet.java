@@ -0,0 +1,256 @@
+package jcip.examples.g5build_block.synchronized_collection;
+
+import java.util.*;
+
+import jcip.annotations.*;
+
+/**
+ * PersistentHashSet
+ * <p/>
+ * Immutable hash set whose updates return a new version sharing structure with the old one
+ * <p/>
+ * A hash array mapped trie: each node consumes five bits of the element's hash and keeps a 32-bit
+ * bitmap of which of its 32 possible children exist, followed by a dense array holding only those
+ * children, either elements or sub-nodes. Elements whose hashes agree on all 32 bits end up together
+ * in a collision node. plus and minus copy only the nodes on the path to the element, so a new
+ * version costs O(log32 n), and old versions remain valid snapshots.
+ */
+@Immutable
+public final class PersistentHashSet<E> extends AbstractSet<E> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentHashSet<Object> EMPTY =
+            new PersistentHashSet<Object>(new BitmapNode(0, new Object[0]), 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashSet(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentHashSet<E> empty() {
+        return (PersistentHashSet<E>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(Object o) {
+        return o != null && root.contains(hash(o), o, 0);
+    }
+
+    /** A new version with e added, or this set if it already contains e. */
+    public PersistentHashSet<E> plus(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        Node newRoot = root.plus(hash(e), e, 0);
+        return newRoot == root ? this : new PersistentHashSet<E>(newRoot, size + 1);
+    }
+
+    /** A new version without o, or this set if it does not contain o. */
+    public PersistentHashSet<E> minus(Object o) {
+        if (o == null)
+            return this;
+        Node newRoot = root.minus(hash(o), o, 0);
+        if (newRoot == root)
+            return this;
+        return newRoot == null ? PersistentHashSet.<E>empty() : new PersistentHashSet<E>(newRoot, size - 1);
+    }
+
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            // Depth-first walk: the path of nodes from the root and the next child index at each
+            private final Deque<Node> nodes = new ArrayDeque<Node>();
+            private final Deque<Integer> positions = new ArrayDeque<Integer>();
+            private Object next;
+
+            {
+                nodes.push(root);
+                positions.push(0);
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+                while (!nodes.isEmpty()) {
+                    Node node = nodes.peek();
+                    int pos = positions.pop();
+                    if (pos == node.entries.length) {
+                        nodes.pop();
+                        continue;
+                    }
+                    positions.push(pos + 1);
+                    Object entry = node.entries[pos];
+                    if (entry instanceof Node) {
+                        nodes.push((Node) entry);
+                        positions.push(0);
+                    } else {
+                        next = entry;
+                        return;
+                    }
+                }
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Object result = next;
+                advance();
+                return (E) result;
+            }
+        };
+    }
+
+    private static int hash(Object o) {
+        int h = o.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private abstract static class Node {
+        final Object[] entries;     // Elements and sub-nodes
+
+        Node(Object[] entries) {
+            this.entries = entries;
+        }
+
+        abstract boolean contains(int hash, Object o, int shift);
+
+        /** Returns this node if o was already present. */
+        abstract Node plus(int hash, Object o, int shift);
+
+        /** Returns this node if o was absent, null if the node became empty. */
+        abstract Node minus(int hash, Object o, int shift);
+    }
+
+    private static final class BitmapNode extends Node {
+        final int bitmap;
+
+        BitmapNode(int bitmap, Object[] entries) {
+            super(entries);
+            this.bitmap = bitmap;
+        }
+
+        boolean contains(int hash, Object o, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return false;
+            Object entry = entries[index(bit)];
+            return entry instanceof Node ? ((Node) entry).contains(hash, o, shift + BITS) : entry.equals(o);
+        }
+
+        Node plus(int hash, Object o, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] grown = new Object[entries.length + 1];
+                System.arraycopy(entries, 0, grown, 0, i);
+                grown[i] = o;
+                System.arraycopy(entries, i, grown, i + 1, entries.length - i);
+                return new BitmapNode(bitmap | bit, grown);
+            }
+            Object entry = entries[i];
+            Object replacement;
+            if (entry instanceof Node) {
+                Node child = (Node) entry;
+                replacement = child.plus(hash, o, shift + BITS);
+                if (replacement == child)
+                    return this;
+            } else if (entry.equals(o)) {
+                return this;
+            } else {
+                replacement = merge(entry, hash(entry), o, hash, shift + BITS);
+            }
+            Object[] copy = entries.clone();
+            copy[i] = replacement;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        Node minus(int hash, Object o, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return this;
+            int i = index(bit);
+            Object entry = entries[i];
+            if (entry instanceof Node) {
+                Node child = (Node) entry;
+                Node replacement = child.minus(hash, o, shift + BITS);
+                if (replacement == child)
+                    return this;
+                if (replacement != null) {
+                    Object[] copy = entries.clone();
+                    // A child left holding a single element is replaced by that element
+                    copy[i] = replacement.entries.length == 1 && !(replacement.entries[0] instanceof Node)
+                            ? replacement.entries[0] : replacement;
+                    return new BitmapNode(bitmap, copy);
+                }
+            } else if (!entry.equals(o)) {
+                return this;
+            }
+            if (entries.length == 1)
+                return null;
+            Object[] shrunk = new Object[entries.length - 1];
+            System.arraycopy(entries, 0, shrunk, 0, i);
+            System.arraycopy(entries, i + 1, shrunk, i, entries.length - i - 1);
+            return new BitmapNode(bitmap & ~bit, shrunk);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private static Node merge(Object a, int hashA, Object b, int hashB, int shift) {
+            if (shift >= 32)
+                return new CollisionNode(new Object[]{a, b});
+            int bitA = 1 << ((hashA >>> shift) & MASK);
+            int bitB = 1 << ((hashB >>> shift) & MASK);
+            if (bitA == bitB)
+                return new BitmapNode(bitA, new Object[]{merge(a, hashA, b, hashB, shift + BITS)});
+            return new BitmapNode(bitA | bitB, Integer.compareUnsigned(bitA, bitB) < 0
+                    ? new Object[]{a, b} : new Object[]{b, a});
+        }
+    }
+
+    /** Elements whose hashes are identical; searched linearly. */
+    private static final class CollisionNode extends Node {
+        CollisionNode(Object[] entries) {
+            super(entries);
+        }
+
+        boolean contains(int hash, Object o, int shift) {
+            for (Object e : entries)
+                if (e.equals(o))
+                    return true;
+            return false;
+        }
+
+        Node plus(int hash, Object o, int shift) {
+            if (contains(hash, o, shift))
+                return this;
+            Object[] grown = Arrays.copyOf(entries, entries.length + 1);
+            grown[entries.length] = o;
+            return new CollisionNode(grown);
+        }
+
+        Node minus(int hash, Object o, int shift) {
+            for (int i = 0; i < entries.length; i++)
+                if (entries[i].equals(o)) {
+                    if (entries.length == 1)
+                        return null;
+                    Object[] shrunk = new Object[entries.length - 1];
+                    System.arraycopy(entries, 0, shrunk, 0, i);
+                    System.arraycopy(entries, i + 1, shrunk, i, entries.length - i - 1);
+                    return new CollisionNode(shrunk);
+                }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package jcip.examples.g5build_block.synchronized_collection;
+
+import java.util.*;
+
+import jcip.annotations.*;
+
+/**
+ * PersistentVector
+ * <p/>
+ * Immutable list whose updates return a new version sharing almost all structure with the old one
+ * <p/>
+ * Elements live in the leaves of a tree with 32-way branching, indexed by the bits of the position
+ * five at a time, plus a tail array for the last (up to) 32 elements. get() walks at most
+ * log32(n) levels, which is no more than 6 for any int size. with, plus and minusLast copy only
+ * the path from the root to the affected leaf (or just the tail), so a new version costs O(log32 n)
+ * time and space and every older version stays intact and usable from any thread.
+ * <p/>
+ * Only the end of the vector can grow or shrink cheaply; inserting or removing in the middle
+ * needs a rebuild (see VersionedList).
+ */
+@Immutable
+public final class PersistentVector<E> extends AbstractList<E> implements RandomAccess {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+    private static final PersistentVector<Object> EMPTY =
+            new PersistentVector<Object>(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    public static <E> PersistentVector<E> of(Collection<? extends E> c) {
+        PersistentVector<E> v = empty();
+        for (E e : c)
+            v = v.plus(e);
+        return v;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(int i) {
+        return (E) leafFor(i)[i & MASK];
+    }
+
+    /** A new version with e appended. */
+    public PersistentVector<E> plus(E e) {
+        int inTail = size - tailOffset();
+        if (inTail < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, inTail + 1);
+            newTail[inTail] = e;
+            return new PersistentVector<E>(size + 1, shift, root, newTail);
+        }
+        // The tail is full: push it into the tree, growing a level if the tree is full too
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector<E>(size + 1, newShift, newRoot, new Object[]{e});
+    }
+
+    /** A new version with position i replaced by e. */
+    public PersistentVector<E> with(int i, E e) {
+        checkIndex(i);
+        if (i >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[i & MASK] = e;
+            return new PersistentVector<E>(size, shift, root, newTail);
+        }
+        return new PersistentVector<E>(size, shift, assoc(shift, root, i, e), tail);
+    }
+
+    /** A new version without the last element. */
+    public PersistentVector<E> minusLast() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        if (size == 1)
+            return empty();
+        if (size - tailOffset() > 1)
+            return new PersistentVector<E>(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        // The tail empties: the last leaf of the tree becomes the new tail
+        Object[] newTail = leafFor(size - 2);
+        Object[] newRoot = popTail(shift, root);
+        int newShift = shift;
+        if (newRoot == null)
+            newRoot = EMPTY_NODE;
+        if (shift > BITS && newRoot[1] == null) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new PersistentVector<E>(size - 1, newShift, newRoot, newTail);
+    }
+
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] leafFor(int i) {
+        checkIndex(i);
+        if (i >= tailOffset())
+            return tail;
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS)
+            node = (Object[]) node[(i >>> level) & MASK];
+        return node;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+        int sub = ((size - 1) >>> level) & MASK;
+        Object[] result = parent.clone();
+        if (level == BITS) {
+            result[sub] = tailNode;
+        } else {
+            Object[] child = (Object[]) parent[sub];
+            result[sub] = child != null ? pushTail(level - BITS, child, tailNode)
+                    : newPath(level - BITS, tailNode);
+        }
+        return result;
+    }
+
+    private static Object[] newPath(int level, Object[] node) {
+        if (level == 0)
+            return node;
+        Object[] path = new Object[WIDTH];
+        path[0] = newPath(level - BITS, node);
+        return path;
+    }
+
+    private static Object[] assoc(int level, Object[] node, int i, Object e) {
+        Object[] result = node.clone();
+        if (level == 0)
+            result[i & MASK] = e;
+        else {
+            int sub = (i >>> level) & MASK;
+            result[sub] = assoc(level - BITS, (Object[]) node[sub], i, e);
+        }
+        return result;
+    }
+
+    private Object[] popTail(int level, Object[] node) {
+        int sub = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Object[] child = popTail(level - BITS, (Object[]) node[sub]);
+            if (child == null && sub == 0)
+                return null;
+            Object[] result = node.clone();
+            result[sub] = child;
+            return result;
+        } else if (sub == 0) {
+            return null;
+        } else {
+            Object[] result = node.clone();
+            result[sub] = null;
+            return result;
+        }
+    }
+
+    /** Walks leaf by leaf instead of descending the tree for every element. */
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int i;
+            private Object[] leaf = size == 0 ? null : leafFor(0);
+
+            public boolean hasNext() {
+                return i < size;
+            }
+
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (i >= size)
+                    throw new NoSuchElementException();
+                if ((i & MASK) == 0 && i > 0)
+                    leaf = leafFor(i);
+                return (E) leaf[i++ & MASK];
+            }
+        };
+    }
+}
@@ -0,0 +1,133 @@
+package jcip.examples.g5build_block.synchronized_collection;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SnapshotIterationBenchmark
+ * <p/>
+ * Writer throughput of synchronized lists while other threads iterate them
+ * <p/>
+ * A list of SIZE elements is shared by WRITERS threads that replace random elements and append or
+ * remove at the end, and READERS threads that iterate the whole list over and over. With
+ * Collections.synchronizedList and Vector the readers must hold the list's lock for the whole
+ * traversal (as SafeVectorHelpers does) to avoid ConcurrentModificationException, so writers
+ * stall behind them. CopyOnWriteArrayList and VersionedList let readers iterate a snapshot.
+ * Each list runs for RUN_MILLIS after a warmup run.
+ */
+public class SnapshotIterationBenchmark {
+    private static final int SIZE = 10_000;
+    private static final int WRITERS = 2;
+    private static final int READERS = 2;
+    private static final long RUN_MILLIS = 1_000;
+    static volatile long sink;          // Keeps the reads from being optimized away
+
+    interface Contender {
+        List<Integer> list();
+
+        /** Sums the list in one traversal, taking whatever lock the list needs. */
+        long traverse();
+    }
+
+    interface ContenderFactory {
+        Contender create(List<Integer> initial);
+    }
+
+    static Contender locked(final List<Integer> list) {
+        return new Contender() {
+            public List<Integer> list() {
+                return list;
+            }
+
+            public long traverse() {
+                long sum = 0;
+                synchronized (list) {
+                    for (Integer i : list)
+                        sum += i;
+                }
+                return sum;
+            }
+        };
+    }
+
+    static Contender snapshot(final List<Integer> list) {
+        return new Contender() {
+            public List<Integer> list() {
+                return list;
+            }
+
+            public long traverse() {
+                long sum = 0;
+                for (Integer i : list)
+                    sum += i;
+                return sum;
+            }
+        };
+    }
+
+    static void write(List<Integer> list, ThreadLocalRandom rnd) {
+        int op = rnd.nextInt(4);
+        if (op == 0) {
+            list.add(rnd.nextInt(1000));
+        } else if (op == 1) {
+            synchronized (list) {       // Client-side locking for the compound action, as in SafeVectorHelpers
+                if (list.size() > SIZE / 2)
+                    list.remove(list.size() - 1);
+            }
+        } else {
+            synchronized (list) {
+                list.set(rnd.nextInt(list.size()), rnd.nextInt(1000));
+            }
+        }
+    }
+
+    static long[] measure(Contender c) throws InterruptedException {
+        AtomicBoolean done = new AtomicBoolean();
+        LongAdder writes = new LongAdder();
+        LongAdder reads = new LongAdder();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < WRITERS; i++)
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                while (!done.get()) {
+                    write(c.list(), rnd);
+                    writes.increment();
+                }
+            }));
+        for (int i = 0; i < READERS; i++)
+            threads.add(new Thread(() -> {
+                long sum = 0;
+                while (!done.get()) {
+                    sum += c.traverse();
+                    reads.increment();
+                }
+                sink = sum;
+            }));
+        for (Thread t : threads)
+            t.start();
+        Thread.sleep(RUN_MILLIS);
+        done.set(true);
+        for (Thread t : threads)
+            t.join();
+        return new long[]{writes.sum() * 1000 / RUN_MILLIS, reads.sum() * 1000 / RUN_MILLIS};
+    }
+
+    static void run(String name, ContenderFactory factory) throws InterruptedException {
+        List<Integer> initial = new ArrayList<Integer>();
+        for (int i = 0; i < SIZE; i++)
+            initial.add(i);
+        measure(factory.create(initial));       // warmup
+        long[] rates = measure(factory.create(initial));
+        System.out.format("%-22s %,12d writes/s %,10d traversals/s%n", name, rates[0], rates[1]);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        run("synchronizedList", initial -> locked(Collections.synchronizedList(new ArrayList<Integer>(initial))));
+        run("Vector", initial -> locked(new Vector<Integer>(initial)));
+        run("CopyOnWriteArrayList", initial -> snapshot(new CopyOnWriteArrayList<Integer>(initial)));
+        run("VersionedList", initial -> snapshot(new VersionedList<Integer>(initial)));
+    }
+}
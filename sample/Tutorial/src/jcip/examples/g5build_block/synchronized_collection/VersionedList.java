@@ -0,0 +1,179 @@
+package jcip.examples.g5build_block.synchronized_collection;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import jcip.annotations.*;
+
+/**
+ * VersionedList
+ * <p/>
+ * Thread-safe list whose readers iterate an immutable version instead of holding the list's lock
+ * <p/>
+ * With Collections.synchronizedList or Vector, a caller that iterates (including a hidden iteration
+ * such as toString, see HiddenIterator) must hold the list's lock for the whole traversal, as
+ * SafeVectorHelpers does, or risk ConcurrentModificationException; meanwhile every writer waits.
+ * Here the contents are a PersistentVector held in a volatile field. A writer takes the lock,
+ * derives the next version in O(log32 n) and publishes it, so writers are serialized only among
+ * themselves. A reader takes a snapshot with one volatile read: iterators, toString, equals and
+ * bulk reads all work on the version current when they started, never block writers and never
+ * throw ConcurrentModificationException. CopyOnWriteArrayList gives the same guarantee but copies
+ * the whole array on every write.
+ * <p/>
+ * Appending, replacing and removing the last element are cheap. Inserting or removing anywhere
+ * else rebuilds the vector, which is O(n) as with an ArrayList.
+ */
+@ThreadSafe
+public class VersionedList<E> extends AbstractList<E> implements RandomAccess {
+    private volatile PersistentVector<E> items = PersistentVector.empty();
+
+    public VersionedList() {
+    }
+
+    public VersionedList(Collection<? extends E> c) {
+        items = PersistentVector.of(c);
+    }
+
+    /** The current version; an immutable list that later writes do not affect. */
+    public PersistentVector<E> snapshot() {
+        return items;
+    }
+
+    public E get(int i) {
+        return items.get(i);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public Iterator<E> iterator() {
+        return items.iterator();
+    }
+
+    public ListIterator<E> listIterator(int index) {
+        return Collections.unmodifiableList(items).listIterator(index);
+    }
+
+    public Object[] toArray() {
+        return items.toArray();
+    }
+
+    public <T> T[] toArray(T[] a) {
+        return items.toArray(a);
+    }
+
+    public String toString() {
+        return items.toString();
+    }
+
+    public boolean equals(Object o) {
+        return o == this || items.equals(o);
+    }
+
+    public int hashCode() {
+        return items.hashCode();
+    }
+
+    public synchronized boolean add(E e) {
+        items = items.plus(e);
+        return true;
+    }
+
+    public synchronized E set(int i, E e) {
+        PersistentVector<E> v = items;
+        E old = v.get(i);
+        items = v.with(i, e);
+        return old;
+    }
+
+    public synchronized void add(int i, E e) {
+        PersistentVector<E> v = items;
+        if (i == v.size()) {
+            items = v.plus(e);
+            return;
+        }
+        if (i < 0 || i > v.size())
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + v.size());
+        List<E> copy = new ArrayList<E>(v);
+        copy.add(i, e);
+        items = PersistentVector.of(copy);
+    }
+
+    public synchronized E remove(int i) {
+        PersistentVector<E> v = items;
+        E old = v.get(i);
+        if (i == v.size() - 1) {
+            items = v.minusLast();
+        } else {
+            List<E> copy = new ArrayList<E>(v);
+            copy.remove(i);
+            items = PersistentVector.of(copy);
+        }
+        return old;
+    }
+
+    public synchronized boolean remove(Object o) {
+        int i = items.indexOf(o);
+        if (i < 0)
+            return false;
+        remove(i);
+        return true;
+    }
+
+    /** Also backs removeAll and retainAll; rebuilds the vector once, under the lock. */
+    public synchronized boolean removeIf(Predicate<? super E> filter) {
+        List<E> kept = new ArrayList<E>();
+        for (E e : items)
+            if (!filter.test(e))
+                kept.add(e);
+        if (kept.size() == items.size())
+            return false;
+        items = PersistentVector.of(kept);
+        return true;
+    }
+
+    public boolean removeAll(Collection<?> c) {
+        return removeIf(e -> c.contains(e));
+    }
+
+    public boolean retainAll(Collection<?> c) {
+        return removeIf(e -> !c.contains(e));
+    }
+
+    public synchronized boolean addAll(Collection<? extends E> c) {
+        PersistentVector<E> v = items;
+        for (E e : c)
+            v = v.plus(e);
+        items = v;
+        return !c.isEmpty();
+    }
+
+    /** Removes and returns the last element; an atomic SafeVectorHelpers.deleteLast. */
+    public synchronized E removeLast() {
+        PersistentVector<E> v = items;
+        if (v.isEmpty())
+            throw new NoSuchElementException();
+        items = v.minusLast();
+        return v.get(v.size() - 1);
+    }
+
+    /** The last element, from a single version; SafeVectorHelpers.getLast without the lock. */
+    public E getLast() {
+        PersistentVector<E> v = items;
+        if (v.isEmpty())
+            throw new NoSuchElementException();
+        return v.get(v.size() - 1);
+    }
+
+    public synchronized void clear() {
+        items = PersistentVector.empty();
+    }
+
+    protected synchronized void removeRange(int fromIndex, int toIndex) {
+        PersistentVector<E> v = items;
+        List<E> copy = new ArrayList<E>(v);
+        copy.subList(fromIndex, toIndex).clear();
+        items = PersistentVector.of(copy);
+    }
+}
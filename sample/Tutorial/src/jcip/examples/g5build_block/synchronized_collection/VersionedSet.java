@@ -0,0 +1,93 @@
+package jcip.examples.g5build_block.synchronized_collection;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import jcip.annotations.*;
+
+/**
+ * VersionedSet
+ * <p/>
+ * Thread-safe set whose readers iterate an immutable version instead of holding the set's lock
+ * <p/>
+ * The set counterpart of VersionedList, backed by a PersistentHashSet. HiddenIterator's
+ * "DEBUG: added ten elements to " + set iterates a HashSet without the lock; with this class the
+ * same concatenation is safe, because toString walks the version current when it was called while
+ * add and remove go on publishing new versions.
+ */
+@ThreadSafe
+public class VersionedSet<E> extends AbstractSet<E> {
+    private volatile PersistentHashSet<E> items = PersistentHashSet.empty();
+
+    /** The current version; an immutable set that later writes do not affect. */
+    public PersistentHashSet<E> snapshot() {
+        return items;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public boolean contains(Object o) {
+        return items.contains(o);
+    }
+
+    public Iterator<E> iterator() {
+        return items.iterator();
+    }
+
+    public Object[] toArray() {
+        return items.toArray();
+    }
+
+    public <T> T[] toArray(T[] a) {
+        return items.toArray(a);
+    }
+
+    public String toString() {
+        return items.toString();
+    }
+
+    public boolean equals(Object o) {
+        return o == this || items.equals(o);
+    }
+
+    public int hashCode() {
+        return items.hashCode();
+    }
+
+    public synchronized boolean add(E e) {
+        PersistentHashSet<E> s = items;
+        items = s.plus(e);
+        return items != s;
+    }
+
+    public synchronized boolean remove(Object o) {
+        PersistentHashSet<E> s = items;
+        items = s.minus(o);
+        return items != s;
+    }
+
+    /** Also backs removeAll and retainAll. */
+    public synchronized boolean removeIf(Predicate<? super E> filter) {
+        PersistentHashSet<E> s = items;
+        for (E e : s)
+            if (filter.test(e))
+                s = s.minus(e);
+        boolean changed = s != items;
+        items = s;
+        return changed;
+    }
+
+    public boolean removeAll(Collection<?> c) {
+        return removeIf(e -> c.contains(e));
+    }
+
+    public boolean retainAll(Collection<?> c) {
+        return removeIf(e -> !c.contains(e));
+    }
+
+    public synchronized void clear() {
+        items = PersistentHashSet.empty();
+    }
+}
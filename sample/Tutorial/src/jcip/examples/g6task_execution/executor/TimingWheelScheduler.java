@@ -0,0 +1,335 @@
+package jcip.examples.g6task_execution.executor;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+
+import jcip.annotations.*;
+
+/**
+ * TimingWheelScheduler
+ * <p/>
+ * Hashed hierarchical timing wheel: O(1) schedule and cancel, one tick thread, expired tasks run on a worker executor
+ * <p/>
+ * Time is cut into ticks. Level 0 has one slot per tick for the next 64 ticks, level 1 one slot per
+ * 64 ticks, and so on; a timeout sits at the lowest level whose slot covers its deadline, and is
+ * cascaded one level down when the tick cursor enters that slot. Scheduling and cancelling from
+ * other threads only touch lock-free queues; the tick thread alone owns the slot lists, so every
+ * operation is a constant-time queue push plus a list link or unlink.
+ * <p/>
+ * Unlike java.util.Timer (see OutOfTime), an exception thrown by one task is logged and affects
+ * nothing else, periodic tasks included, and a slow task delays only the worker it runs on.
+ * A periodic task is rescheduled only when its run completes, so runs never overlap; like
+ * ScheduledThreadPoolExecutor's fixed rate, a run that overruns its period makes the next start late.
+ * Once stop() is called, scheduling throws RejectedExecutionException, and every task that had
+ * been accepted either expires or is among those stop() returns.
+ */
+@ThreadSafe
+public class TimingWheelScheduler {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = (Long.SIZE + WHEEL_BITS - 1) / WHEEL_BITS;
+    private static final int MAX_PENDING_PER_TICK = 100_000;
+
+    private static final Logger log = Logger.getLogger("TimingWheelScheduler");
+    private static final AtomicIntegerFieldUpdater<Node> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Node.class, "state");
+
+    public interface Timeout {
+        /** Returns false if the task has already expired (for one-shot tasks) or was cancelled. */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        boolean isExpired();
+    }
+
+    private final long tickNanos;
+    private final Executor workers;
+    private final Thread tickThread;
+    private final long startTime = System.nanoTime();
+    private final Queue<Node> pending = new ConcurrentLinkedQueue<Node>();
+    private final Queue<Node> cancelled = new ConcurrentLinkedQueue<Node>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean stopped;
+
+    // Owned by the tick thread
+    private final Node[][] wheels = new Node[LEVELS][WHEEL_SIZE];
+    private long currentTick;
+    private final List<Runnable> unprocessed = new ArrayList<Runnable>();
+
+    public TimingWheelScheduler(long tickDuration, TimeUnit unit, Executor workers) {
+        this(tickDuration, unit, workers, false);
+    }
+
+    /** With daemon set, the tick thread does not keep the JVM alive, so a wheel nobody stops is harmless. */
+    public TimingWheelScheduler(long tickDuration, TimeUnit unit, Executor workers, boolean daemon) {
+        this.tickNanos = unit.toNanos(tickDuration);
+        if (tickNanos <= 0)
+            throw new IllegalArgumentException("tickDuration: " + tickDuration);
+        this.workers = workers;
+        this.tickThread = new Thread(new Runnable() {
+            public void run() {
+                runTicks();
+            }
+        }, "TimingWheelScheduler");
+        tickThread.setDaemon(daemon);
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return enqueue(task, unit.toNanos(delay), 0);
+    }
+
+    /**
+     * Runs task every period after an initial delay; a failing run is logged and the next one still happens.
+     * The period is rounded up to whole ticks, so a task never runs more often than asked.
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0)
+            throw new IllegalArgumentException("period: " + period);
+        return enqueue(task, unit.toNanos(initialDelay), Math.ceilDiv(unit.toNanos(period), tickNanos));
+    }
+
+    private Timeout enqueue(Runnable task, long delayNanos, long periodTicks) {
+        if (task == null)
+            throw new NullPointerException();
+        if (stopped)
+            throw new RejectedExecutionException("scheduler stopped");
+        if (started.compareAndSet(false, true))
+            tickThread.start();
+        // Like ScheduledThreadPoolExecutor.triggerTime: saturate rather than overflow into the past
+        long now = System.nanoTime() - startTime;
+        long deadline = now + Math.min(Math.max(0, delayNanos), Long.MAX_VALUE - now);
+        long deadlineTick = Math.ceilDiv(deadline, tickNanos);
+        Node node = new Node(task, deadlineTick, periodTicks);
+        pending.add(node);
+        // stop() may have collected the pending queue since the check above; whoever claims the node reports it
+        if (stopped && STATE.compareAndSet(node, Node.ACTIVE, Node.CANCELLED))
+            throw new RejectedExecutionException("scheduler stopped");
+        return node;
+    }
+
+    /**
+     * Stops the tick thread, which like a Timer thread keeps the JVM alive, and returns the tasks that never expired.
+     * A periodic task that is running at the time is not rescheduled.
+     */
+    public List<Runnable> stop() throws InterruptedException {
+        stopped = true;
+        if (!started.compareAndSet(false, true)) {
+            tickThread.interrupt();
+            tickThread.join();
+        }
+        return unprocessed;
+    }
+
+    private class Node implements Timeout {
+        private static final int ACTIVE = 0, EXPIRED = 1, CANCELLED = 2;
+
+        final Runnable task;
+        final long periodTicks;
+        volatile int state = ACTIVE;
+        // Tick thread's, except while a periodic run hands it to the worker and back through pending
+        long deadlineTick;
+        // Slot membership, touched only by the tick thread
+        Node prev, next;
+        Node[] wheel;
+        int slot;
+
+        Node(Runnable task, long deadlineTick, long periodTicks) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+            this.periodTicks = periodTicks;
+        }
+
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, ACTIVE, CANCELLED))
+                return false;
+            cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+    }
+
+    private void runTicks() {
+        try {
+            while (!stopped) {
+                long nowTick = (System.nanoTime() - startTime) / tickNanos;
+                drainCancelled();
+                drainPending();
+                while (currentTick < nowTick)
+                    advance(++currentTick);
+                long sleep = startTime + (currentTick + 1) * tickNanos - System.nanoTime();
+                if (sleep > 0)
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+            }
+        } catch (InterruptedException e) {
+            // stop() was called
+        } finally {
+            collectUnprocessed();
+        }
+    }
+
+    private void drainPending() {
+        Node node;
+        for (int i = 0; i < MAX_PENDING_PER_TICK && (node = pending.poll()) != null; i++)
+            if (node.state == Node.ACTIVE)
+                insert(node);
+    }
+
+    private void drainCancelled() {
+        Node node;
+        while ((node = cancelled.poll()) != null)
+            unlink(node);
+    }
+
+    private void insert(Node node) {
+        long deadline = node.deadlineTick;
+        if (deadline <= currentTick) {
+            expire(node);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1
+                && (deadline >>> (WHEEL_BITS * (level + 1))) != (currentTick >>> (WHEEL_BITS * (level + 1))))
+            level++;
+        Node[] wheel = wheels[level];
+        int slot = (int) (deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+        node.wheel = wheel;
+        node.slot = slot;
+        node.prev = null;
+        node.next = wheel[slot];
+        if (node.next != null)
+            node.next.prev = node;
+        wheel[slot] = node;
+    }
+
+    private void unlink(Node node) {
+        if (node.wheel == null)
+            return; // Still in pending, or already expired
+        if (node.prev != null)
+            node.prev.next = node.next;
+        else
+            node.wheel[node.slot] = node.next;
+        if (node.next != null)
+            node.next.prev = node.prev;
+        node.prev = node.next = null;
+        node.wheel = null;
+    }
+
+    private void advance(long tick) {
+        // Cascade every level whose cursor wrapped, highest first, then expire the level 0 slot
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((tick & ((1L << (WHEEL_BITS * level)) - 1)) == 0)
+                cascade(wheels[level], (int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        }
+        Node[] wheel = wheels[0];
+        int slot = (int) tick & WHEEL_MASK;
+        Node node = wheel[slot];
+        wheel[slot] = null;
+        while (node != null) {
+            Node next = node.next;
+            node.prev = node.next = null;
+            node.wheel = null;
+            expire(node);
+            node = next;
+        }
+    }
+
+    private void cascade(Node[] wheel, int slot) {
+        Node node = wheel[slot];
+        wheel[slot] = null;
+        while (node != null) {
+            Node next = node.next;
+            node.prev = node.next = null;
+            node.wheel = null;
+            insert(node);
+            node = next;
+        }
+    }
+
+    private void expire(final Node node) {
+        if (node.periodTicks > 0) {
+            if (node.state != Node.ACTIVE)
+                return;
+        } else if (!STATE.compareAndSet(node, Node.ACTIVE, Node.EXPIRED)) {
+            return;
+        }
+        try {
+            workers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        node.task.run();
+                    } catch (Throwable t) {
+                        log.log(Level.WARNING, "Timeout task " + node.task + " threw", t);
+                    } finally {
+                        if (node.periodTicks > 0)
+                            reschedule(node);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.log(Level.WARNING, "Worker executor rejected " + node.task, e);
+            if (node.periodTicks > 0) {
+                node.deadlineTick += node.periodTicks;
+                insert(node);
+            }
+        }
+    }
+
+    /** Called on the worker once a periodic run is over; the node is in no slot until the tick thread inserts it. */
+    private void reschedule(Node node) {
+        if (node.state != Node.ACTIVE || stopped)
+            return;
+        node.deadlineTick += node.periodTicks;
+        pending.add(node);
+    }
+
+    private void collectUnprocessed() {
+        for (Node[] wheel : wheels)
+            for (Node node : wheel)
+                for (; node != null; node = node.next)
+                    if (STATE.compareAndSet(node, Node.ACTIVE, Node.CANCELLED))
+                        unprocessed.add(node.task);
+        for (Node node; (node = pending.poll()) != null; )
+            if (STATE.compareAndSet(node, Node.ACTIVE, Node.CANCELLED))
+                unprocessed.add(node.task);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        TimingWheelScheduler timer = new TimingWheelScheduler(1, TimeUnit.MILLISECONDS, workers);
+
+        // OutOfTime with a timing wheel: the first failure does not take the scheduler down
+        timer.schedule(new OutOfTime.ThrowTask(), 1, TimeUnit.MILLISECONDS);
+        TimeUnit.SECONDS.sleep(1);
+        timer.schedule(new OutOfTime.ThrowTask(), 1, TimeUnit.MILLISECONDS);
+
+        final CountDownLatch fired = new CountDownLatch(1_000_000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1_000_000; i++) {
+            Timeout timeout = timer.schedule(new Runnable() {
+                public void run() {
+                    fired.countDown();
+                }
+            }, 10 + i % 1000, TimeUnit.MILLISECONDS);
+            if (i % 2 == 1 && timeout.cancel())
+                fired.countDown();
+        }
+        System.out.println(String.format("scheduled 1M timeouts in %dms",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        fired.await();
+        System.out.println(String.format("all fired or cancelled after %dms",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        System.out.println("unprocessed: " + timer.stop().size());
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,212 @@
+package jcip.examples.g6task_execution.parallelism;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import jcip.annotations.*;
+import jcip.examples.g6task_execution.executor.TimingWheelScheduler;
+import jcip.examples.g8thread_pool.extend_executor.LatencyRecorder;
+
+/**
+ * HedgingExecutor
+ * <p/>
+ * Fires a backup attempt for a task that is slower than the observed tail latency, and keeps the first answer
+ * <p/>
+ * The hedge delay starts at a configured value and then follows the chosen percentile (p95 by
+ * default) of successful attempts, recomputed every REFRESH_EVERY completions. Only a task that
+ * is already slower than that gets a second attempt, so roughly 5% extra load buys a tail closer
+ * to the median. Whichever attempt succeeds first completes the future and the other is cancelled;
+ * the task fails only when every attempt it launched has failed. Tasks must be idempotent.
+ * <p/>
+ * Executors built without a TimingWheelScheduler share one, created on first use. Its tick thread
+ * and the thread that fires the hedges are daemons, so nothing needs to stop it.
+ */
+@ThreadSafe
+public class HedgingExecutor {
+    private static final int REFRESH_EVERY = 256;
+
+    private final ExecutorService exec;
+    private final TimingWheelScheduler timer;
+    private final double percentile;
+    private final LatencyRecorder latency = new LatencyRecorder();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private volatile long hedgeDelayNanos;
+
+    public HedgingExecutor(ExecutorService exec, TimingWheelScheduler timer, double percentile,
+                           long initialHedgeDelay, TimeUnit unit) {
+        if (percentile <= 0 || percentile >= 100)
+            throw new IllegalArgumentException("percentile: " + percentile);
+        this.exec = exec;
+        this.timer = timer;
+        this.percentile = percentile;
+        this.hedgeDelayNanos = unit.toNanos(initialHedgeDelay);
+    }
+
+    public HedgingExecutor(ExecutorService exec, TimingWheelScheduler timer) {
+        this(exec, timer, 95, 50, TimeUnit.MILLISECONDS);
+    }
+
+    /** Hedges on the shared timer. */
+    public HedgingExecutor(ExecutorService exec) {
+        this(exec, SharedTimer.INSTANCE);
+    }
+
+    // Lazy holder; the hedge callbacks only submit an attempt, so one thread fires them all
+    private static class SharedTimer {
+        static final TimingWheelScheduler INSTANCE = new TimingWheelScheduler(1, TimeUnit.MILLISECONDS,
+                Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "HedgingExecutor-timeouts");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }), true);
+    }
+
+    private class HedgedCall<T> {
+        final Callable<T> task;
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final AtomicInteger outstanding = new AtomicInteger();
+        final Queue<Future<?>> attempts = new ConcurrentLinkedQueue<Future<?>>();
+
+        HedgedCall(Callable<T> task) {
+            this.task = task;
+        }
+
+        void launch() {
+            outstanding.incrementAndGet();
+            final long start = System.nanoTime();
+            Future<?> attempt;
+            try {
+                attempt = exec.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            T value = task.call();
+                            if (result.complete(value))
+                                recordSuccess(System.nanoTime() - start);
+                        } catch (Throwable t) {
+                            if (outstanding.decrementAndGet() == 0)
+                                result.completeExceptionally(t);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // A rejected attempt counts as a failed one
+                if (outstanding.decrementAndGet() == 0)
+                    result.completeExceptionally(e);
+                return;
+            }
+            attempts.add(attempt);
+            if (result.isDone())
+                attempt.cancel(true);
+        }
+
+        void cancelLosers() {
+            for (Future<?> attempt : attempts)
+                attempt.cancel(true);
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        final HedgedCall<T> call = new HedgedCall<T>(task);
+        call.launch();
+        final TimingWheelScheduler.Timeout hedge = timer.schedule(new Runnable() {
+            public void run() {
+                if (!call.result.isDone()) {
+                    hedges.incrementAndGet();
+                    call.launch();
+                }
+            }
+        }, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        call.result.whenComplete((value, t) -> {
+            hedge.cancel();
+            call.cancelLosers();
+        });
+        return call.result;
+    }
+
+    private void recordSuccess(long nanos) {
+        latency.record(nanos);
+        if (successes.incrementAndGet() % REFRESH_EVERY == 0) {
+            long p = latency.snapshotInterval().valueAtPercentile(percentile);
+            if (p > 0)
+                hedgeDelayNanos = p;
+        }
+    }
+
+    /**
+     * Runs all tasks hedged and hands the ranked results so far to onPartial every time one
+     * arrives. Returns the ranked results that arrived before the time budget ran out; tasks
+     * still running at that point are cancelled, failed tasks are left out.
+     */
+    public <T> List<T> invokeAllRanked(Collection<? extends Callable<T>> tasks, Comparator<? super T> ranking,
+                                       long time, TimeUnit unit, Consumer<? super List<T>> onPartial)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        final BlockingQueue<CompletableFuture<T>> completed = new LinkedBlockingQueue<CompletableFuture<T>>();
+        List<CompletableFuture<T>> futures = new ArrayList<CompletableFuture<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            final CompletableFuture<T> f = submit(task);
+            futures.add(f);
+            f.whenComplete((value, t) -> completed.add(f));
+        }
+
+        List<T> ranked = new ArrayList<T>(tasks.size());
+        try {
+            for (int received = 0; received < futures.size(); received++) {
+                CompletableFuture<T> f = completed.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (f == null)
+                    break;
+                if (f.isCompletedExceptionally())
+                    continue;
+                T value = f.join();
+                int i = Collections.binarySearch(ranked, value, ranking);
+                ranked.add(i < 0 ? -i - 1 : i, value);
+                if (onPartial != null)
+                    onPartial.accept(Collections.unmodifiableList(new ArrayList<T>(ranked)));
+            }
+        } finally {
+            for (CompletableFuture<T> f : futures)
+                f.cancel(true);
+        }
+        return ranked;
+    }
+
+    public long getHedgeDelay(TimeUnit unit) {
+        return unit.convert(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Number of backup attempts launched so far. */
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        TimingWheelScheduler timer = new TimingWheelScheduler(1, TimeUnit.MILLISECONDS, pool);
+        HedgingExecutor hedging = new HedgingExecutor(pool, timer, 95, 20, TimeUnit.MILLISECONDS);
+
+        // 2ms usually, 100ms for one call in twenty
+        final Random random = new Random();
+        Callable<Long> flaky = new Callable<Long>() {
+            public Long call() throws Exception {
+                long ms = random.nextInt(20) == 0 ? 100 : 2;
+                TimeUnit.MILLISECONDS.sleep(ms);
+                return ms;
+            }
+        };
+        LatencyRecorder observed = new LatencyRecorder();
+        for (int i = 0; i < 2000; i++) {
+            long start = System.nanoTime();
+            hedging.submit(flaky).get();
+            observed.record(System.nanoTime() - start);
+        }
+        System.out.println("hedge delay " + hedging.getHedgeDelay(TimeUnit.MICROSECONDS) + "us, "
+                + hedging.getHedgeCount() + " hedges, caller latency " + observed.snapshotTotal());
+        timer.stop();
+        pool.shutdownNow();
+    }
+}
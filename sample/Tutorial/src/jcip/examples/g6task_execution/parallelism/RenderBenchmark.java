@@ -0,0 +1,201 @@
+package jcip.examples.g6task_execution.parallelism;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * RenderBenchmark
+ * <p/>
+ * Time to first image and time to full page for SingleThreadRenderer, FutureRenderer and StreamingRenderer
+ * <p/>
+ * Images come from a simulated source: each download sleeps 5-50ms, pages draw from a pool of
+ * images spread over a few hosts, and a page repeats images that earlier pages already loaded,
+ * which is what the StreamingRenderer cache is for.
+ */
+public class RenderBenchmark {
+    private static final int PAGES = 20;
+    private static final int IMAGES_PER_PAGE = 16;
+    private static final int DISTINCT_IMAGES = 64;
+    private static final String[] HOSTS = {"img1.example.com", "img2.example.com", "cdn.example.com"};
+
+    /** The simulated image every renderer downloads, adapted to each renderer's nested interfaces. */
+    static final class SimulatedImage {
+        final int id;
+        final String host;
+        final int latencyMillis;
+
+        SimulatedImage(int id, Random random) {
+            this.id = id;
+            this.host = HOSTS[id % HOSTS.length];
+            this.latencyMillis = 5 + random.nextInt(46);
+        }
+
+        int download() {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 10_000 + id;
+        }
+    }
+
+    /** Per page: nanos from renderPage() until the first image, and until the last one. */
+    static class Timing {
+        long start, firstImage, done;
+
+        void reset() {
+            start = System.nanoTime();
+            firstImage = 0;
+        }
+
+        void image() {
+            if (firstImage == 0)
+                firstImage = System.nanoTime();
+        }
+    }
+
+    private final List<List<SimulatedImage>> pages = new ArrayList<List<SimulatedImage>>();
+
+    RenderBenchmark(long seed) {
+        Random random = new Random(seed);
+        List<SimulatedImage> images = new ArrayList<SimulatedImage>();
+        for (int i = 0; i < DISTINCT_IMAGES; i++)
+            images.add(new SimulatedImage(i, random));
+        for (int p = 0; p < PAGES; p++) {
+            List<SimulatedImage> page = new ArrayList<SimulatedImage>();
+            for (int i = 0; i < IMAGES_PER_PAGE; i++)
+                page.add(images.get(random.nextInt(DISTINCT_IMAGES)));
+            pages.add(page);
+        }
+    }
+
+    interface PageRenderer {
+        void render(List<SimulatedImage> page, Timing timing);
+    }
+
+    void run(String name, PageRenderer renderer) {
+        Timing timing = new Timing();
+        long firstTotal = 0, doneTotal = 0;
+        for (List<SimulatedImage> page : pages) {
+            timing.reset();
+            renderer.render(page, timing);
+            firstTotal += timing.firstImage - timing.start;
+            doneTotal += System.nanoTime() - timing.start;
+        }
+        System.out.println(String.format("%-20s first image %6.1fms   full page %6.1fms",
+                name, firstTotal / 1e6 / PAGES, doneTotal / 1e6 / PAGES));
+    }
+
+    public static void main(String[] args) {
+        RenderBenchmark benchmark = new RenderBenchmark(42);
+        final ExecutorService executor = Executors.newCachedThreadPool();
+
+        benchmark.run("SingleThreadRenderer", new PageRenderer() {
+            public void render(final List<SimulatedImage> page, final Timing timing) {
+                new SingleThreadRenderer() {
+                    void renderText(CharSequence s) {
+                    }
+
+                    List<ImageInfo> scanForImageInfo(CharSequence s) {
+                        List<ImageInfo> infos = new ArrayList<ImageInfo>();
+                        for (final SimulatedImage image : page)
+                            infos.add(new ImageInfo() {
+                                public ImageData downloadImage() {
+                                    image.download();
+                                    return new ImageData() {
+                                    };
+                                }
+                            });
+                        return infos;
+                    }
+
+                    void renderImage(ImageData i) {
+                        timing.image();
+                    }
+                }.renderPage("");
+            }
+        });
+
+        benchmark.run("FutureRenderer", new PageRenderer() {
+            public void render(final List<SimulatedImage> page, final Timing timing) {
+                new FutureRenderer() {
+                    void renderText(CharSequence s) {
+                    }
+
+                    List<ImageInfo> scanForImageInfo(CharSequence s) {
+                        List<ImageInfo> infos = new ArrayList<ImageInfo>();
+                        for (final SimulatedImage image : page)
+                            infos.add(new ImageInfo() {
+                                public ImageData downloadImage() {
+                                    image.download();
+                                    return new ImageData() {
+                                    };
+                                }
+                            });
+                        return infos;
+                    }
+
+                    void renderImage(ImageData i) {
+                        timing.image();
+                    }
+                }.renderPage("");
+            }
+        });
+
+        final StreamingRenderer.ImageCache cache = new StreamingRenderer.ImageCache(32 * 10_100);
+        final StreamingRenderer.HostLimiter hosts = new StreamingRenderer.HostLimiter(executor, 4);
+        benchmark.run("StreamingRenderer", new PageRenderer() {
+            public void render(final List<SimulatedImage> page, final Timing timing) {
+                new StreamingRenderer(cache, hosts) {
+                    void renderText(CharSequence s) {
+                    }
+
+                    List<ImageInfo> scanForImageInfo(CharSequence s) {
+                        List<ImageInfo> infos = new ArrayList<ImageInfo>();
+                        for (SimulatedImage image : page)
+                            infos.add(new CachedImage(image));
+                        return infos;
+                    }
+
+                    void renderImage(ImageData i) {
+                        timing.image();
+                    }
+                }.renderPage("");
+            }
+        });
+        System.out.println(String.format("StreamingRenderer cache: %d hits, %d misses",
+                cache.getHits(), cache.getMisses()));
+        executor.shutdown();
+        System.exit(0); // FutureRenderer keeps a private non-daemon pool per instance
+    }
+
+    private static final class CachedImage implements StreamingRenderer.ImageInfo {
+        private final SimulatedImage image;
+
+        CachedImage(SimulatedImage image) {
+            this.image = image;
+        }
+
+        public String getHost() {
+            return image.host;
+        }
+
+        public StreamingRenderer.ImageData downloadImage() {
+            final int size = image.download();
+            return new StreamingRenderer.ImageData() {
+                public int getSizeBytes() {
+                    return size;
+                }
+            };
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof CachedImage && ((CachedImage) o).image.id == image.id;
+        }
+
+        public int hashCode() {
+            return image.id;
+        }
+    }
+}
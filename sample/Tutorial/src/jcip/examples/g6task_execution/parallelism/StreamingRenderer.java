@@ -0,0 +1,247 @@
+package jcip.examples.g6task_execution.parallelism;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import jcip.annotations.*;
+import static jcip.examples.LaunderThrowable.launderThrowable;
+
+/**
+ * StreamingRenderer
+ * <p/>
+ * Rendering text first and images in completion order, with per-host download limits and a shared image cache
+ * <p/>
+ * Renderer hands every download to the executor at once. Here each host gets at most
+ * maxPerHost downloads in flight and the rest wait in a per-host queue without holding a pool
+ * thread. Downloads go through an ImageCache shared by all pages: a hit completes immediately,
+ * and a download already in flight for another page is joined instead of repeated. The limit
+ * belongs to a HostLimiter that every renderer of the application shares, so it holds across
+ * pages rather than for each page on its own.
+ */
+@ThreadSafe
+public abstract class StreamingRenderer {
+    private final ImageCache cache;
+    private final HostLimiter hosts;
+
+    StreamingRenderer(ImageCache cache, HostLimiter hosts) {
+        this.cache = cache;
+        this.hosts = hosts;
+    }
+
+    void renderPage(CharSequence source) {
+        final List<ImageInfo> info = scanForImageInfo(source);
+        final BlockingQueue<CompletableFuture<ImageData>> completed =
+                new LinkedBlockingQueue<CompletableFuture<ImageData>>();
+        List<CompletableFuture<ImageData>> downloads = new ArrayList<CompletableFuture<ImageData>>(info.size());
+        for (ImageInfo imageInfo : info) {
+            final CompletableFuture<ImageData> f = cache.get(imageInfo, hosts);
+            downloads.add(f);
+            f.whenComplete((data, t) -> completed.add(f));
+        }
+
+        renderText(source);
+
+        try {
+            for (int t = 0, n = info.size(); t < n; t++)
+                renderImage(completed.take().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw launderThrowable(e.getCause());
+        } finally {
+            // Only this page's interest goes away; the cache keeps downloads other pages share
+            for (CompletableFuture<ImageData> f : downloads)
+                f.cancel(false);
+        }
+    }
+
+    /**
+     * HostLimiter
+     * <p/>
+     * Download slots per host, shared by all the renderers that should respect one limit
+     */
+    @ThreadSafe
+    static class HostLimiter {
+        private final Executor executor;
+        private final int maxPerHost;
+        private final ConcurrentMap<String, HostQueue> hosts = new ConcurrentHashMap<String, HostQueue>();
+
+        HostLimiter(Executor executor, int maxPerHost) {
+            if (maxPerHost < 1)
+                throw new IllegalArgumentException();
+            this.executor = executor;
+            this.maxPerHost = maxPerHost;
+        }
+
+        /** Starts a download, or queues it behind the downloads already in flight for its host. */
+        void download(ImageInfo imageInfo, CompletableFuture<ImageData> result) {
+            HostQueue host = hosts.get(imageInfo.getHost());
+            if (host == null) {
+                HostQueue created = new HostQueue();
+                host = hosts.putIfAbsent(imageInfo.getHost(), created);
+                if (host == null)
+                    host = created;
+            }
+            host.offer(new Download(imageInfo, result, host));
+        }
+
+        private static class Download implements Runnable {
+            final ImageInfo imageInfo;
+            final CompletableFuture<ImageData> result;
+            final HostQueue host;
+
+            Download(ImageInfo imageInfo, CompletableFuture<ImageData> result, HostQueue host) {
+                this.imageInfo = imageInfo;
+                this.result = result;
+                this.host = host;
+            }
+
+            public void run() {
+                try {
+                    result.complete(imageInfo.downloadImage());
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                } finally {
+                    host.done();
+                }
+            }
+        }
+
+        private class HostQueue {
+            @GuardedBy("this") private int active;
+            @GuardedBy("this") private final Queue<Download> waiting = new ArrayDeque<Download>();
+
+            void offer(Download d) {
+                synchronized (this) {
+                    if (active >= maxPerHost) {
+                        waiting.add(d);
+                        return;
+                    }
+                    active++;
+                }
+                start(d);
+            }
+
+            void done() {
+                Download next;
+                synchronized (this) {
+                    next = waiting.poll();
+                    if (next == null) {
+                        active--;
+                        return;
+                    }
+                }
+                start(next);
+            }
+
+            private void start(Download d) {
+                try {
+                    executor.execute(d);
+                } catch (RejectedExecutionException e) {
+                    d.result.completeExceptionally(e);
+                    done();
+                }
+            }
+        }
+    }
+
+    /**
+     * ImageCache
+     * <p/>
+     * LRU cache of downloaded images bounded by total size in bytes, shared between pages
+     */
+    @ThreadSafe
+    static class ImageCache {
+        private final long maxBytes;
+        private final ConcurrentMap<ImageInfo, CompletableFuture<ImageData>> inFlight =
+                new ConcurrentHashMap<ImageInfo, CompletableFuture<ImageData>>();
+        @GuardedBy("this") private final LinkedHashMap<ImageInfo, ImageData> lru =
+                new LinkedHashMap<ImageInfo, ImageData>(16, 0.75f, true);
+        @GuardedBy("this") private long bytes;
+        @GuardedBy("this") private long hits, misses;
+
+        ImageCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        CompletableFuture<ImageData> get(final ImageInfo imageInfo, HostLimiter hosts) {
+            synchronized (this) {
+                ImageData cached = lru.get(imageInfo);
+                if (cached != null) {
+                    hits++;
+                    return CompletableFuture.completedFuture(cached);
+                }
+                misses++;
+            }
+            CompletableFuture<ImageData> f = new CompletableFuture<ImageData>();
+            CompletableFuture<ImageData> existing = inFlight.putIfAbsent(imageInfo, f);
+            if (existing == null) {
+                // A download that finished since the miss above has left inFlight, but only
+                // after putting its image in the LRU, so look there again before repeating it
+                ImageData cached = getAfterMiss(imageInfo);
+                if (cached != null) {
+                    inFlight.remove(imageInfo, f);
+                    f.complete(cached);     // For any page that joined f in the meantime
+                    return CompletableFuture.completedFuture(cached);
+                }
+                f.whenComplete((data, t) -> {
+                    if (data != null)
+                        put(imageInfo, data);
+                    inFlight.remove(imageInfo, f);
+                });
+                hosts.download(imageInfo, f);
+                existing = f;
+            }
+            // A page cancelling its copy must not cancel the shared download
+            return existing.thenApply(data -> data);
+        }
+
+        private synchronized ImageData getAfterMiss(ImageInfo imageInfo) {
+            ImageData cached = lru.get(imageInfo);
+            if (cached != null) {
+                misses--;
+                hits++;
+            }
+            return cached;
+        }
+
+        private synchronized void put(ImageInfo imageInfo, ImageData data) {
+            if (data.getSizeBytes() > maxBytes)
+                return;
+            ImageData previous = lru.put(imageInfo, data);
+            if (previous != null)
+                bytes -= previous.getSizeBytes();
+            bytes += data.getSizeBytes();
+            Iterator<ImageData> eldest = lru.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().getSizeBytes();
+                eldest.remove();
+            }
+        }
+
+        synchronized long getHits() {
+            return hits;
+        }
+
+        synchronized long getMisses() {
+            return misses;
+        }
+    }
+
+    interface ImageData {
+        int getSizeBytes();
+    }
+
+    /** Implementations must define equals and hashCode: they are the cache key. */
+    interface ImageInfo {
+        String getHost();
+
+        ImageData downloadImage();
+    }
+
+    abstract void renderText(CharSequence s);
+
+    abstract List<ImageInfo> scanForImageInfo(CharSequence s);
+
+    abstract void renderImage(ImageData i);
+}
@@ -2,6 +2,7 @@ package jcip.examples.g6task_execution.parallelism;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 
 /**
  * QuoteTask
@@ -12,6 +13,7 @@ import java.util.concurrent.*;
  */
 public class TimeBudget {
     private static ExecutorService exec = Executors.newCachedThreadPool();
+    private static final HedgingExecutor hedgingExec = new HedgingExecutor(exec);
 
     public List<TravelQuote> getRankedTravelQuotes(TravelInfo travelInfo, Set<TravelCompany> companies,
                                                    Comparator<TravelQuote> ranking, long time, TimeUnit unit)
@@ -42,6 +44,18 @@ public class TimeBudget {
         return quotes;
     }
 
+    // Slow companies get a backup request once they pass the observed p95, and partial rankings are
+    // published as quotes arrive instead of after the slowest one. Failed or late quotes are left out.
+    public List<TravelQuote> getRankedTravelQuotesHedged(TravelInfo travelInfo, Set<TravelCompany> companies,
+                                                         Comparator<TravelQuote> ranking, long time, TimeUnit unit,
+                                                         Consumer<List<TravelQuote>> partialResults)
+            throws InterruptedException {
+        List<QuoteTask> tasks = new ArrayList<QuoteTask>();
+        for (TravelCompany company : companies)
+            tasks.add(new QuoteTask(company, travelInfo));
+        return hedgingExec.invokeAllRanked(tasks, ranking, time, unit, partialResults);
+    }
+
 }
 
 class QuoteTask implements Callable<TravelQuote> {
@@ -0,0 +1,73 @@
+package jcip.examples.g7cancel_shutdown.task_cancel;
+
+import java.util.concurrent.*;
+
+import jcip.annotations.*;
+
+/**
+ * Deadline
+ * <p/>
+ * Absolute point in System.nanoTime() time, optionally bound to the current thread
+ * <p/>
+ * A relative timeout shrinks every time it is passed along; an absolute deadline does not.
+ * Code running inside within() sees the deadline through current(), and DeadlineExecutor
+ * carries it into every task it submits from there, so nested work inherits the budget
+ * of the request that started it.
+ */
+@Immutable
+public final class Deadline {
+    private static final ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+    // Deadlines are compared by subtraction, which stays correct only within half the range of a long
+    private static final long MAX_TIMEOUT_NANOS = Long.MAX_VALUE >> 1;
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /** A timeout of more than about 146 years is taken as that long, so Long.MAX_VALUE means no limit in practice. */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + Math.min(unit.toNanos(timeout), MAX_TIMEOUT_NANOS));
+    }
+
+    /** The deadline bound to the calling thread, or null if there is none. */
+    public static Deadline current() {
+        return current.get();
+    }
+
+    /** The earlier of two deadlines; either may be null. */
+    public static Deadline earliest(Deadline a, Deadline b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        return a.deadlineNanos - b.deadlineNanos <= 0 ? a : b;
+    }
+
+    public long remaining(TimeUnit unit) {
+        return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Runs task with this deadline bound to the calling thread, or the inherited one if
+     * that is earlier, and restores the previous binding afterwards.
+     */
+    public <T> T within(Callable<T> task) throws Exception {
+        Deadline previous = current.get();
+        current.set(earliest(previous, this));
+        try {
+            return task.call();
+        } finally {
+            current.set(previous);
+        }
+    }
+
+    public String toString() {
+        return "Deadline[" + remaining(TimeUnit.MILLISECONDS) + "ms]";
+    }
+}
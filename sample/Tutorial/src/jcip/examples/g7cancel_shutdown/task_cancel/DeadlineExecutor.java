@@ -0,0 +1,132 @@
+package jcip.examples.g7cancel_shutdown.task_cancel;
+
+import java.util.concurrent.*;
+
+import jcip.annotations.*;
+import jcip.examples.g6task_execution.executor.TimingWheelScheduler;
+import static jcip.examples.LaunderThrowable.launderThrowable;
+
+/**
+ * DeadlineExecutor
+ * <p/>
+ * Timed execution driven by a shared timing wheel instead of a blocked caller or a cancel task per call
+ * <p/>
+ * Every task gets the earliest of its own timeout and the Deadline bound to the submitting thread,
+ * and runs with that deadline bound, so tasks it submits in turn inherit it. The returned
+ * CompletableFuture completes with a TimeoutException when the deadline passes, at which point the
+ * task is cancelled through its Future (never by interrupting a pool thread directly, see TimedRun2).
+ * Arming the timeout is an O(1) insert into the wheel, and it is disarmed as soon as the task finishes.
+ * <p/>
+ * Give the wheel a worker executor of its own, not the pool that runs the tasks: timeout callbacks
+ * queued behind the very tasks they are meant to time out would fire only once the pool frees up.
+ * The callbacks only complete a future, so a single thread is plenty.
+ */
+@ThreadSafe
+public class DeadlineExecutor {
+    private final ExecutorService exec;
+    private final TimingWheelScheduler timer;
+
+    public DeadlineExecutor(ExecutorService exec, TimingWheelScheduler timer) {
+        this.exec = exec;
+        this.timer = timer;
+    }
+
+    /** Runs task under the deadline inherited from the calling thread, if any. */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return submit(task, Deadline.current());
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> task, long timeout, TimeUnit unit) {
+        return submit(task, Deadline.earliest(Deadline.current(), Deadline.after(timeout, unit)));
+    }
+
+    public CompletableFuture<Void> submit(final Runnable task, long timeout, TimeUnit unit) {
+        return submit(Executors.<Void>callable(task, null), timeout, unit);
+    }
+
+    private <T> CompletableFuture<T> submit(final Callable<T> task, final Deadline deadline) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        if (deadline != null && deadline.isExpired()) {
+            result.completeExceptionally(new TimeoutException(deadline.toString()));
+            return result;
+        }
+        final Future<?> future = exec.submit(() -> {
+            if (result.isDone())
+                return;
+            try {
+                T value = deadline == null ? task.call() : deadline.within(task);
+                result.complete(value);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        orTimeout(result, deadline);
+        result.whenComplete((value, t) -> {
+            if (result.isCancelled() || t instanceof TimeoutException)
+                future.cancel(true);
+        });
+        return result;
+    }
+
+    /**
+     * Completes f with a TimeoutException if it is still pending at the deadline, like
+     * CompletableFuture.orTimeout but on the shared wheel; a null deadline leaves f untouched.
+     */
+    public <T> CompletableFuture<T> orTimeout(final CompletableFuture<T> f, final Deadline deadline) {
+        if (deadline == null || f.isDone())
+            return f;
+        final TimingWheelScheduler.Timeout timeout = timer.schedule(
+                () -> f.completeExceptionally(new TimeoutException(deadline.toString())),
+                deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        f.whenComplete((value, t) -> timeout.cancel());
+        return f;
+    }
+
+    /** TimedRun.timedRun without the extra thread: the caller waits, the wheel cancels. */
+    public void timedRun(Runnable r, long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            submit(r, timeout, unit).get();
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof TimeoutException))
+                throw launderThrowable(e.getCause());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        ExecutorService timeouts = Executors.newSingleThreadExecutor();
+        TimingWheelScheduler timer = new TimingWheelScheduler(1, TimeUnit.MILLISECONDS, timeouts);
+        final DeadlineExecutor exec = new DeadlineExecutor(pool, timer);
+
+        // The outer task has 100ms; the nested one asks for 10s but inherits the 100ms
+        CompletableFuture<String> outer = exec.submit(() -> {
+            CompletableFuture<String> inner = exec.submit(() -> {
+                System.out.println("inner sees " + Deadline.current());
+                TimeUnit.SECONDS.sleep(10);
+                return "inner";
+            }, 10, TimeUnit.SECONDS);
+            return "outer+" + inner.get();
+        }, 100, TimeUnit.MILLISECONDS);
+
+        outer.handle((value, t) -> value != null ? value : "failed: " + t)
+                .thenAccept(System.out::println)
+                .join();
+
+        // Saturate the pool: a task queued behind the sleepers still times out on time
+        for (int i = 0; i < 4; i++) {
+            exec.submit(() -> {
+                TimeUnit.SECONDS.sleep(10);
+                return null;
+            }, 10, TimeUnit.SECONDS);
+        }
+        long start = System.nanoTime();
+        exec.submit(() -> { }, 50, TimeUnit.MILLISECONDS)
+                .handle((value, t) -> "queued task: " + t + " after "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms")
+                .thenAccept(System.out::println)
+                .join();
+        timer.stop();
+        timeouts.shutdown();
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,277 @@
+package jcip.examples.g7cancel_shutdown.task_cancel;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import jcip.annotations.*;
+
+/**
+ * ParallelPrimeGenerator
+ * <p/>
+ * PrimeGenerator that sieves ranges on several threads and publishes them without locking
+ * <p/>
+ * PrimeGenerator finds one prime at a time with nextProbablePrime on a single thread, takes its
+ * lock for every prime and copies the whole list on every get(). Here each worker claims the next
+ * range of RANGE numbers from an AtomicLong, sieves it against the base primes up to its square
+ * root, and stores the result as an immutable long[] chunk in a slot of an append-only array of
+ * doubling segments that are never copied. Ranges finish out of order, so a separate published
+ * count covers only the finished prefix: after storing its chunk a worker advances the count over
+ * every finished chunk it finds, exactly as ConcurrentIndexedList does for its slots.
+ * <p/>
+ * get() reads the published state once and returns a Primes view over it in O(1); the view never
+ * changes afterwards and needs no locking to read. Cancellation works both ways the book shows:
+ * cancel() sets a volatile flag that workers check between ranges, and interrupting a worker (for
+ * example with shutdownNow) stops it too.
+ */
+@ThreadSafe
+public class ParallelPrimeGenerator {
+    private static final int RANGE = 1 << 16;
+    private static final int FIRST_SEGMENT_BITS = 4;
+    private static final int MAX_SEGMENTS = 31 - FIRST_SEGMENT_BITS;
+    // The ranges those segments hold; one more would need a segment of 2^31 slots
+    private static final long MAX_RANGES = (1L << 31) - (1 << FIRST_SEGMENT_BITS);
+    private static ExecutorService exec = Executors.newCachedThreadPool();
+
+    private final AtomicLong nextRange = new AtomicLong();
+    private final AtomicReferenceArray<AtomicReferenceArray<Chunk>> segments =
+            new AtomicReferenceArray<AtomicReferenceArray<Chunk>>(MAX_SEGMENTS);
+    private final AtomicReference<Published> published = new AtomicReference<Published>(new Published(0, 0));
+    private final BasePrimes basePrimes = new BasePrimes();
+    private volatile boolean cancelled;
+
+    /** The primes of one range, and how many primes come before it once it is published. */
+    private static final class Chunk {
+        final long[] primes;
+        volatile long countBefore;
+
+        Chunk(long[] primes) {
+            this.primes = primes;
+        }
+    }
+
+    @Immutable
+    private static final class Published {
+        final int chunks;
+        final long primes;
+
+        Published(int chunks, long primes) {
+            this.chunks = chunks;
+            this.primes = primes;
+        }
+    }
+
+    /** An unchanging view of the primes published when it was taken. */
+    @Immutable
+    public final class Primes extends AbstractList<Long> implements RandomAccess {
+        private final Published state;
+
+        Primes(Published state) {
+            this.state = state;
+        }
+
+        public int size() {
+            return (int) Math.min(Integer.MAX_VALUE, state.primes);
+        }
+
+        public long count() {
+            return state.primes;
+        }
+
+        public Long get(int i) {
+            return getLong(i);
+        }
+
+        public long getLong(long i) {
+            if (i < 0 || i >= state.primes)
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + state.primes);
+            // Binary search for the chunk holding prime number i
+            int lo = 0, hi = state.chunks - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (chunk(mid).countBefore <= i)
+                    lo = mid;
+                else
+                    hi = mid - 1;
+            }
+            Chunk c = chunk(lo);
+            return c.primes[(int) (i - c.countBefore)];
+        }
+
+        /** The largest prime found so far, or 0 if none. */
+        public long last() {
+            return state.primes == 0 ? 0 : getLong(state.primes - 1);
+        }
+
+        /** The published chunks, each the primes of one range in ascending order, as copies. */
+        public List<long[]> chunks() {
+            return new AbstractList<long[]>() {
+                public long[] get(int i) {
+                    if (i < 0 || i >= state.chunks)
+                        throw new IndexOutOfBoundsException("Index: " + i);
+                    return chunk(i).primes.clone();
+                }
+
+                public int size() {
+                    return state.chunks;
+                }
+            };
+        }
+    }
+
+    /** Starts workers sieving on exec; returns immediately. */
+    public void start(Executor exec, int workers) {
+        for (int i = 0; i < workers; i++)
+            exec.execute(new Runnable() {
+                public void run() {
+                    work();
+                }
+            });
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** The primes published so far; O(1), no copying. */
+    public Primes get() {
+        return new Primes(published.get());
+    }
+
+    private void work() {
+        while (!cancelled && !Thread.currentThread().isInterrupted()) {
+            long range = nextRange.getAndIncrement();
+            if (range >= MAX_RANGES)
+                return;
+            long low = range * RANGE;
+            store((int) range, new Chunk(sieve(low, low + RANGE)));
+        }
+    }
+
+    private long[] sieve(long low, long high) {
+        // Bit i stands for low + i
+        long[] composite = new long[RANGE >>> 6];
+        int[] base = basePrimes.upTo((int) Math.sqrt((double) high) + 1);
+        for (int p : base) {
+            long pp = (long) p * p;
+            if (pp >= high)
+                break;
+            for (long m = Math.max(pp, (low + p - 1) / p * p) - low; m < RANGE; m += p)
+                composite[(int) (m >>> 6)] |= 1L << m;
+        }
+        if (low == 0)
+            composite[0] |= 3L;     // 0 and 1
+        int count = 0;
+        for (long w : composite)
+            count += Long.bitCount(~w);
+        long[] primes = new long[count];
+        for (int w = 0, k = 0; w < composite.length; w++)
+            for (long free = ~composite[w]; free != 0; free &= free - 1)
+                primes[k++] = low + (w << 6) + Long.numberOfTrailingZeros(free);
+        return primes;
+    }
+
+    private void store(int range, Chunk chunk) {
+        int s = segment(range);
+        AtomicReferenceArray<Chunk> seg = segments.get(s);
+        if (seg == null) {
+            segments.compareAndSet(s, null, new AtomicReferenceArray<Chunk>(1 << (s + FIRST_SEGMENT_BITS)));
+            seg = segments.get(s);
+        }
+        seg.set(offset(range), chunk);
+        advance();
+    }
+
+    /** Publishes every stored chunk directly after the published prefix. */
+    private void advance() {
+        for (;;) {
+            Published p = published.get();
+            AtomicReferenceArray<Chunk> seg = segments.get(segment(p.chunks));
+            Chunk c = seg == null ? null : seg.get(offset(p.chunks));
+            if (c == null)
+                return;             // Its worker is still sieving and will advance from there
+            c.countBefore = p.primes;
+            published.compareAndSet(p, new Published(p.chunks + 1, p.primes + c.primes.length));
+        }
+    }
+
+    private Chunk chunk(int i) {
+        return segments.get(segment(i)).get(offset(i));
+    }
+
+    // Segment k holds ranges [2^(k+b) - 2^b, 2^(k+b+1) - 2^b) where b = FIRST_SEGMENT_BITS
+    private static int segment(int i) {
+        long q = (long) i + (1 << FIRST_SEGMENT_BITS);
+        return 63 - Long.numberOfLeadingZeros(q) - FIRST_SEGMENT_BITS;
+    }
+
+    private static int offset(int i) {
+        long q = (long) i + (1 << FIRST_SEGMENT_BITS);
+        return (int) (q - Long.highestOneBit(q));
+    }
+
+    /** Primes for crossing off, extended by doubling when a range needs larger ones. */
+    @ThreadSafe
+    private static final class BasePrimes {
+        private volatile int[] primes = new int[0];
+        private volatile int limit;
+
+        int[] upTo(int n) {
+            if (n <= limit)
+                return primes;
+            synchronized (this) {
+                if (n > limit) {
+                    int newLimit = Math.max(n, limit * 2);
+                    boolean[] composite = new boolean[newLimit + 1];
+                    int count = 0;
+                    for (int i = 2; i <= newLimit; i++) {
+                        if (composite[i])
+                            continue;
+                        count++;
+                        for (long j = (long) i * i; j <= newLimit; j += i)
+                            composite[(int) j] = true;
+                    }
+                    int[] ps = new int[count];
+                    for (int i = 2, k = 0; i <= newLimit; i++)
+                        if (!composite[i])
+                            ps[k++] = i;
+                    primes = ps;
+                    limit = newLimit;     // Written last: a reader that sees it also sees primes
+                }
+                return primes;
+            }
+        }
+    }
+
+    static Primes aSecondOfPrimes() throws InterruptedException {
+        ParallelPrimeGenerator generator = new ParallelPrimeGenerator();
+        generator.start(exec, Runtime.getRuntime().availableProcessors());
+        try {
+            SECONDS.sleep(1);
+        } finally {
+            generator.cancel();
+        }
+        return generator.get();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        try {
+            Primes primes = aSecondOfPrimes();
+            System.out.println(primes.count() + " primes in a second, up to " + primes.last()
+                    + ", first " + primes.subList(0, 10));
+            // Not PrimeGenerator.aSecondOfPrimes: its pool is never shut down and would keep the JVM up
+            PrimeGenerator generator = new PrimeGenerator();
+            exec.execute(generator);
+            try {
+                SECONDS.sleep(1);
+            } finally {
+                generator.cancel();
+            }
+            List<java.math.BigInteger> slow = generator.get();
+            System.out.println(slow.size() + " primes in a second with PrimeGenerator, up to " + slow.get(slow.size() - 1));
+        } finally {
+            exec.shutdown();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package jcip.examples.g8thread_pool.config_executor;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+import jcip.annotations.*;
+
+/**
+ * AdaptiveBoundedExecutor
+ * <p/>
+ * BoundedExecutor whose bound is adjusted at runtime from measured task latency
+ * <p/>
+ * Instead of a fixed Semaphore(bound), every completed task reports its round-trip time
+ * (submission to completion) to an AdaptiveLimit, which raises the limit while latency stays
+ * flat and lowers it once tasks start queueing. A task rejected by the underlying executor
+ * counts as a drop and is reported to the caller.
+ */
+@ThreadSafe
+public class AdaptiveBoundedExecutor {
+    private static final int RTT_WINDOW = 1024;
+
+    private final Executor exec;
+    private final Lock lock = new ReentrantLock();
+    private final Condition belowLimit = lock.newCondition();
+    @GuardedBy("lock") private final AdaptiveLimit limit;
+    @GuardedBy("lock") private int inFlight;
+    @GuardedBy("lock") private final long[] rtts = new long[RTT_WINDOW];
+    @GuardedBy("lock") private int rttCount;
+    @GuardedBy("lock") private int rttNext;
+
+    public AdaptiveBoundedExecutor(Executor exec, AdaptiveLimit limit) {
+        this.exec = exec;
+        this.limit = limit;
+    }
+
+    /** Blocks until the current limit allows another task in flight. */
+    public void submitTask(Runnable command) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit.getLimit())
+                belowLimit.await();
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        dispatch(command);
+    }
+
+    /** Waits up to the given time for capacity; returns false if the task was not submitted. */
+    public boolean submitTask(Runnable command, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit.getLimit()) {
+                if (nanos <= 0)
+                    return false;
+                nanos = belowLimit.awaitNanos(nanos);
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        dispatch(command);
+        return true;
+    }
+
+    /** Submits only if the limit is not reached right now; never blocks. */
+    public boolean trySubmitTask(Runnable command) {
+        lock.lock();
+        try {
+            if (inFlight >= limit.getLimit())
+                return false;
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        dispatch(command);
+        return true;
+    }
+
+    private void dispatch(final Runnable command) {
+        final long start = System.nanoTime();
+        try {
+            exec.execute(new Runnable() {
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        release(System.nanoTime() - start, false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release(-1, true);
+            throw e;
+        }
+    }
+
+    private void release(long rttNanos, boolean dropped) {
+        lock.lock();
+        try {
+            int oldLimit = limit.getLimit();
+            limit.onSample(rttNanos, inFlight, dropped);
+            inFlight--;
+            if (rttNanos >= 0) {
+                rtts[rttNext] = rttNanos;
+                rttNext = (rttNext + 1) % RTT_WINDOW;
+                rttCount = Math.min(rttCount + 1, RTT_WINDOW);
+            }
+            if (limit.getLimit() > oldLimit)
+                belowLimit.signalAll();
+            else
+                belowLimit.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit.getLimit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the given percentile (0..100) of the last RTT_WINDOW round-trip times in
+     * nanoseconds, or 0 if no task has completed yet.
+     */
+    public long getRttPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile: " + percentile);
+        long[] window;
+        lock.lock();
+        try {
+            window = Arrays.copyOf(rtts, rttCount);
+        } finally {
+            lock.unlock();
+        }
+        if (window.length == 0)
+            return 0;
+        Arrays.sort(window);
+        int index = (int) Math.ceil(percentile / 100 * window.length) - 1;
+        return window[Math.max(0, index)];
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        AdaptiveBoundedExecutor exec = new AdaptiveBoundedExecutor(pool,
+                new AdaptiveLimit.Vegas(4, 1, 64));
+        for (int i = 0; i < 2000; i++) {
+            exec.submitTask(new Runnable() {
+                public void run() {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            if (i % 500 == 0)
+                System.out.println(String.format("limit=%d inFlight=%d p50=%dus p99=%dus",
+                        exec.getLimit(), exec.getInFlight(),
+                        exec.getRttPercentile(50) / 1000, exec.getRttPercentile(99) / 1000));
+        }
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,158 @@
+package jcip.examples.g8thread_pool.config_executor;
+
+import jcip.annotations.*;
+
+/**
+ * AdaptiveLimit
+ * <p/>
+ * Concurrency limit algorithms driven by measured task latency
+ * <p/>
+ * Implementations are not thread-safe; AdaptiveBoundedExecutor only calls them while holding its lock.
+ */
+@NotThreadSafe
+public interface AdaptiveLimit {
+    /** The number of tasks currently allowed in flight. */
+    int getLimit();
+
+    /**
+     * Feeds one completed (or dropped) task into the algorithm.
+     *
+     * @param rttNanos time from submission to completion, or -1 if the task never ran
+     * @param inFlight number of tasks in flight when the sample completed, including this one
+     * @param dropped  true if the task was rejected by the underlying executor
+     */
+    void onSample(long rttNanos, int inFlight, boolean dropped);
+
+    /**
+     * Additive increase, multiplicative decrease: grow by one while the limit is
+     * actually being used, back off by a constant ratio on a drop or a timeout.
+     */
+    class Aimd implements AdaptiveLimit {
+        private final int minLimit;
+        private final int maxLimit;
+        private final double backoffRatio;
+        private final long timeoutNanos;
+        private int limit;
+
+        public Aimd(int initialLimit, int minLimit, int maxLimit, double backoffRatio, long timeoutNanos) {
+            if (minLimit < 1 || minLimit > maxLimit || backoffRatio <= 0 || backoffRatio >= 1)
+                throw new IllegalArgumentException();
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.backoffRatio = backoffRatio;
+            this.timeoutNanos = timeoutNanos;
+            this.limit = clamp(initialLimit, minLimit, maxLimit);
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public void onSample(long rttNanos, int inFlight, boolean dropped) {
+            if (dropped || rttNanos > timeoutNanos)
+                limit = clamp((int) (limit * backoffRatio), minLimit, maxLimit);
+            else if (inFlight * 2 >= limit) // Don't grow a limit nobody is hitting
+                limit = clamp(limit + 1, minLimit, maxLimit);
+        }
+    }
+
+    /**
+     * TCP Vegas style: estimate the queue from the ratio between the best RTT seen
+     * and the current one, and steer the limit so that the queue stays between alpha and beta.
+     */
+    class Vegas implements AdaptiveLimit {
+        private final int minLimit;
+        private final int maxLimit;
+        private long rttNoLoad = Long.MAX_VALUE;
+        private int limit;
+
+        public Vegas(int initialLimit, int minLimit, int maxLimit) {
+            if (minLimit < 1 || minLimit > maxLimit)
+                throw new IllegalArgumentException();
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.limit = clamp(initialLimit, minLimit, maxLimit);
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public void onSample(long rttNanos, int inFlight, boolean dropped) {
+            if (dropped) {
+                limit = clamp(limit - log10(limit), minLimit, maxLimit);
+                return;
+            }
+            if (rttNanos <= 0)
+                return;
+            rttNoLoad = Math.min(rttNoLoad, rttNanos);
+            if (inFlight * 2 < limit)
+                return;
+
+            int log = log10(limit);
+            int queue = (int) Math.ceil(limit * (1 - (double) rttNoLoad / rttNanos));
+            if (queue < 3 * log)        // alpha
+                limit = clamp(limit + log, minLimit, maxLimit);
+            else if (queue > 6 * log)   // beta
+                limit = clamp(limit - log, minLimit, maxLimit);
+        }
+
+        private static int log10(int n) {
+            return Math.max(1, (int) Math.log10(n));
+        }
+    }
+
+    /**
+     * Gradient: scale the limit by the ratio between a long-term and the short-term
+     * RTT average, plus a sqrt(limit) allowance for queueing, then smooth the result.
+     */
+    class Gradient implements AdaptiveLimit {
+        private static final double SHORT_WEIGHT = 0.2;
+        private static final double LONG_WEIGHT = 0.01;
+        private static final double SMOOTHING = 0.2;
+
+        private final int minLimit;
+        private final int maxLimit;
+        private double shortRtt;
+        private double longRtt;
+        private double estimatedLimit;
+
+        public Gradient(int initialLimit, int minLimit, int maxLimit) {
+            if (minLimit < 1 || minLimit > maxLimit)
+                throw new IllegalArgumentException();
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.estimatedLimit = clamp(initialLimit, minLimit, maxLimit);
+        }
+
+        public int getLimit() {
+            return (int) estimatedLimit;
+        }
+
+        public void onSample(long rttNanos, int inFlight, boolean dropped) {
+            if (dropped) {
+                estimatedLimit = Math.max(minLimit, estimatedLimit * 0.9);
+                return;
+            }
+            if (rttNanos <= 0)
+                return;
+            if (longRtt == 0) {
+                shortRtt = longRtt = rttNanos;
+                return;
+            }
+            shortRtt += SHORT_WEIGHT * (rttNanos - shortRtt);
+            longRtt += LONG_WEIGHT * (rttNanos - longRtt);
+            if (inFlight * 2 < estimatedLimit)
+                return;
+
+            double gradient = Math.max(0.5, Math.min(1.0, longRtt / shortRtt));
+            double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,256 @@
+package jcip.examples.g8thread_pool.config_executor;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import jcip.annotations.*;
+import jcip.examples.g8thread_pool.extend_executor.LatencyRecorder;
+import jcip.examples.g8thread_pool.extend_executor.LatencySnapshot;
+import jcip.examples.g8thread_pool.extend_executor.TimingThreadPool;
+
+/**
+ * InstrumentedThreadPool
+ * <p/>
+ * ThreadPoolExecutor that measures queueing delay, busy time and the wait/compute ratio per task type
+ * <p/>
+ * Around each task the pool samples wall-clock and thread CPU time; whatever wall time was not
+ * spent on the CPU counts as waiting (I/O, locks, sleeps). These are the W/C and U inputs of the
+ * sizing formula N_threads = N_cpu * U * (1 + W/C), which PoolSizeController applies at runtime.
+ * Where the JVM cannot measure thread CPU time, or it has been disabled, CPU time is taken to be
+ * the wall time, so W/C reads as zero rather than as garbage.
+ * <p/>
+ * All measurement happens in beforeExecute and afterExecute, and execute(Runnable) queues the
+ * caller's own task, so remove(), getQueue() and shutdownNow() see what was submitted. Queue
+ * delay needs a submission time: tasks from submit() are stamped by newTaskFor, and a Runnable
+ * passed to execute can carry its own by implementing TimingThreadPool.Timestamped.
+ * <p/>
+ * The task type is the class of the submitted Runnable or Callable, unless the task implements
+ * TaskType and names itself. At most MAX_TASK_TYPES types are tracked; tasks of any further
+ * type are counted together under OTHER_TASKS.
+ */
+@ThreadSafe
+public class InstrumentedThreadPool extends ThreadPoolExecutor {
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    public static final int MAX_TASK_TYPES = 256;
+    public static final String OTHER_TASKS = "(other)";
+
+    public interface TaskType {
+        String taskType();
+    }
+
+    private final boolean cpuTimeSupported = threads.isCurrentThreadCpuTimeSupported();
+    private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<String, Counters>();
+    private final Counters otherCounters = new Counters(OTHER_TASKS);
+    private final LongAdder busyNanos = new LongAdder();
+    // {start wall time, start cpu time or -1} of the task running on this worker
+    private final ThreadLocal<long[]> started = new ThreadLocal<long[]>() {
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    public InstrumentedThreadPool(int corePoolSize, int maximumPoolSize, long keepAliveTime,
+                                  TimeUnit unit, BlockingQueue<Runnable> workQueue) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+    }
+
+    public InstrumentedThreadPool(int corePoolSize, int maximumPoolSize, long keepAliveTime,
+                                  TimeUnit unit, BlockingQueue<Runnable> workQueue,
+                                  ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+    }
+
+    private static class Counters {
+        final String type;
+        final LongAdder count = new LongAdder();
+        final LongAdder queueWaitNanos = new LongAdder();
+        final LongAdder wallNanos = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        final LatencyRecorder queueWait = new LatencyRecorder();
+
+        Counters(String type) {
+            this.type = type;
+        }
+
+        TaskStats stats() {
+            return new TaskStats(type, count.sum(), queueWaitNanos.sum(), wallNanos.sum(),
+                    cpuNanos.sum(), queueWait.snapshotTotal());
+        }
+    }
+
+    private interface Stamped {
+        long submitTime();
+
+        Counters counters();
+    }
+
+    private static class StampedFutureTask<V> extends FutureTask<V> implements Stamped {
+        private final long submitTime = System.nanoTime();
+        private final Counters counters;
+
+        StampedFutureTask(Callable<V> callable, Counters counters) {
+            super(callable);
+            this.counters = counters;
+        }
+
+        StampedFutureTask(Runnable runnable, V result, Counters counters) {
+            super(runnable, result);
+            this.counters = counters;
+        }
+
+        public long submitTime() {
+            return submitTime;
+        }
+
+        public Counters counters() {
+            return counters;
+        }
+    }
+
+    private Counters countersFor(Object task) {
+        String type = task instanceof TaskType
+                ? ((TaskType) task).taskType()
+                : task.getClass().getName();
+        Counters c = counters.get(type);
+        if (c == null) {
+            // The bound can be overshot by a racing put or two, but not by a growing number of types
+            if (counters.size() >= MAX_TASK_TYPES)
+                return otherCounters;
+            Counters created = new Counters(type);
+            c = counters.putIfAbsent(type, created);
+            if (c == null)
+                c = created;
+        }
+        return c;
+    }
+
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new StampedFutureTask<T>(callable, countersFor(callable));
+    }
+
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new StampedFutureTask<T>(runnable, value, countersFor(runnable));
+    }
+
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        long now = System.nanoTime();
+        long submitTime = r instanceof Stamped ? ((Stamped) r).submitTime()
+                : r instanceof TimingThreadPool.Timestamped ? ((TimingThreadPool.Timestamped) r).submitTime()
+                : -1;
+        if (submitTime != -1) {
+            Counters c = countersOf(r);
+            long wait = now - submitTime;
+            c.queueWaitNanos.add(wait);
+            c.queueWait.record(wait);
+        }
+        long[] start = started.get();
+        start[0] = now;
+        start[1] = currentThreadCpuTime();
+    }
+
+    protected void afterExecute(Runnable r, Throwable t) {
+        try {
+            long[] start = started.get();
+            long wall = System.nanoTime() - start[0];
+            long end = currentThreadCpuTime();
+            long cpu = start[1] < 0 || end < 0 ? wall : Math.min(end - start[1], wall);
+            busyNanos.add(wall);
+            Counters c = countersOf(r);
+            c.count.increment();
+            c.wallNanos.add(wall);
+            c.cpuNanos.add(cpu);
+        } finally {
+            super.afterExecute(r, t);
+        }
+    }
+
+    private Counters countersOf(Runnable r) {
+        return r instanceof Stamped ? ((Stamped) r).counters() : countersFor(r);
+    }
+
+    /** CPU time of the calling thread, or -1 if it cannot be measured right now. */
+    private long currentThreadCpuTime() {
+        // Enabled can be switched off at runtime, and then getCurrentThreadCpuTime returns -1
+        return cpuTimeSupported && threads.isThreadCpuTimeEnabled() ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    /** Total wall-clock time worker threads have spent running tasks, in nanoseconds. */
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    /** Cumulative statistics for every task type seen so far, keyed by type. */
+    public Map<String, TaskStats> getTaskStats() {
+        Map<String, TaskStats> stats = new TreeMap<String, TaskStats>();
+        for (Counters c : counters.values())
+            stats.put(c.type, c.stats());
+        if (otherCounters.count.sum() > 0)
+            stats.put(OTHER_TASKS, otherCounters.stats());
+        return stats;
+    }
+
+    /**
+     * TaskStats
+     * <p/>
+     * Cumulative per-type counters; subtract two of them to get an interval
+     */
+    @Immutable
+    public static class TaskStats {
+        private final String type;
+        private final long count;
+        private final long queueWaitNanos;
+        private final long wallNanos;
+        private final long cpuNanos;
+        private final LatencySnapshot queueWait;
+
+        TaskStats(String type, long count, long queueWaitNanos, long wallNanos, long cpuNanos,
+                  LatencySnapshot queueWait) {
+            this.type = type;
+            this.count = count;
+            this.queueWaitNanos = queueWaitNanos;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.queueWait = queueWait;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getQueueWaitNanos() {
+            return queueWaitNanos;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        /** Queue-wait distribution since the pool started, over the tasks that carried a submission time. */
+        public LatencySnapshot getQueueWait() {
+            return queueWait;
+        }
+
+        /** W/C: time spent waiting while running, relative to time spent computing. */
+        public double getWaitComputeRatio() {
+            return cpuNanos == 0 ? 0 : (double) (wallNanos - cpuNanos) / cpuNanos;
+        }
+
+        public String toString() {
+            long stamped = queueWait.getCount();
+            return String.format("%s: count=%d avgQueueWait=%dns avgRun=%dns W/C=%.2f",
+                    type, count, stamped == 0 ? 0 : queueWaitNanos / stamped,
+                    count == 0 ? 0 : wallNanos / count, getWaitComputeRatio());
+        }
+    }
+}
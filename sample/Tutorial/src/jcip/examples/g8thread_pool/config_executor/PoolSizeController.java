@@ -0,0 +1,138 @@
+package jcip.examples.g8thread_pool.config_executor;
+
+import java.util.concurrent.*;
+
+import jcip.annotations.*;
+
+/**
+ * PoolSizeController
+ * <p/>
+ * Periodically resizes an InstrumentedThreadPool with N_threads = N_cpu * U * (1 + W/C)
+ * <p/>
+ * W/C is measured over the last period across all task types, weighted by the time each
+ * type spent running; U is the target CPU utilization. The result is clamped to the
+ * configured bounds, and any headroom between core and maximum size at construction is kept.
+ * <p/>
+ * The pool only grows while it is saturated: if its core threads were busy for less than
+ * SATURATED of the last period and nothing is queued, there is no backlog for more threads
+ * to work off, however high W/C is. Shrinking is always allowed.
+ */
+@ThreadSafe
+public class PoolSizeController implements Runnable {
+    static final double SATURATED = 0.9;
+
+    private final InstrumentedThreadPool pool;
+    private final int minThreads;
+    private final int maxThreads;
+    private final double targetUtilization;
+    private final int headroom;
+    private final int nCpu = Runtime.getRuntime().availableProcessors();
+
+    @GuardedBy("this") private long lastSampleTime = System.nanoTime();
+    @GuardedBy("this") private long lastBusy;
+    @GuardedBy("this") private long lastWall;
+    @GuardedBy("this") private long lastCpu;
+    private volatile double utilization;
+    private volatile double waitComputeRatio;
+
+    public PoolSizeController(InstrumentedThreadPool pool, int minThreads, int maxThreads,
+                              double targetUtilization) {
+        if (minThreads < 1 || minThreads > maxThreads || targetUtilization <= 0 || targetUtilization > 1)
+            throw new IllegalArgumentException();
+        this.pool = pool;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.targetUtilization = targetUtilization;
+        this.headroom = pool.getMaximumPoolSize() - pool.getCorePoolSize();
+    }
+
+    public ScheduledFuture<?> start(ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+        return scheduler.scheduleAtFixedRate(this, period, period, unit);
+    }
+
+    public synchronized void run() {
+        long now = System.nanoTime();
+        long busy = pool.getBusyNanos();
+        long wall = 0, cpu = 0;
+        for (InstrumentedThreadPool.TaskStats s : pool.getTaskStats().values()) {
+            wall += s.getWallNanos();
+            cpu += s.getCpuNanos();
+        }
+        long elapsed = now - lastSampleTime;
+        long dBusy = busy - lastBusy, dWall = wall - lastWall, dCpu = cpu - lastCpu;
+        lastSampleTime = now;
+        lastBusy = busy;
+        lastWall = wall;
+        lastCpu = cpu;
+        if (elapsed <= 0 || dCpu <= 0)
+            return; // Nothing ran, nothing to learn from
+
+        utilization = (double) dBusy / ((double) elapsed * pool.getCorePoolSize());
+        waitComputeRatio = (double) (dWall - dCpu) / dCpu;
+        int target = targetPoolSize(waitComputeRatio);
+        if (target > pool.getCorePoolSize() && utilization < SATURATED && pool.getQueue().isEmpty())
+            return; // Idle workers already; more of them would not run anything sooner
+        resize(target);
+    }
+
+    int targetPoolSize(double waitComputeRatio) {
+        long size = Math.round(Math.ceil(nCpu * targetUtilization * (1 + waitComputeRatio)));
+        return (int) Math.max(minThreads, Math.min(maxThreads, size));
+    }
+
+    private void resize(int target) {
+        if (target == pool.getCorePoolSize())
+            return;
+        // Core may never exceed maximum, so grow the maximum first and shrink it last.
+        if (target > pool.getCorePoolSize()) {
+            pool.setMaximumPoolSize(Math.max(pool.getMaximumPoolSize(), target + headroom));
+            pool.setCorePoolSize(target);
+        } else {
+            pool.setCorePoolSize(target);
+            pool.setMaximumPoolSize(target + headroom);
+        }
+    }
+
+    /** Fraction of the core threads' time spent running tasks during the last period. */
+    public double getUtilization() {
+        return utilization;
+    }
+
+    /** Measured W/C during the last period. */
+    public double getWaitComputeRatio() {
+        return waitComputeRatio;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        InstrumentedThreadPool pool = new InstrumentedThreadPool(2, 2, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        PoolSizeController controller = new PoolSizeController(pool, 1, 64, 0.8);
+        controller.start(scheduler, 200, TimeUnit.MILLISECONDS);
+
+        // Mostly waiting: 1ms of sleep for every ~0.1ms of computation
+        for (int i = 0; i < 5000; i++) {
+            pool.submit(new Runnable() {
+                public void run() {
+                    long deadline = System.nanoTime() + 100_000;
+                    while (System.nanoTime() < deadline)
+                        Thread.onSpinWait();
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < 5; i++) {
+            TimeUnit.MILLISECONDS.sleep(400);
+            System.out.println(String.format("poolSize=%d U=%.2f W/C=%.2f queued=%d",
+                    pool.getCorePoolSize(), controller.getUtilization(),
+                    controller.getWaitComputeRatio(), pool.getQueue().size()));
+        }
+        System.out.println(pool.getTaskStats().values());
+        scheduler.shutdown();
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,115 @@
+package jcip.examples.g8thread_pool.extend_executor;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import jcip.annotations.*;
+
+/**
+ * LatencyRecorder
+ * <p/>
+ * Lock-free latency histogram with striped counts merged on read
+ * <p/>
+ * Values are bucketed the way HdrHistogram does it: exact below 128ns, then 64 linear
+ * sub-buckets per power of two, so every bucket is within 1/64 (~1.6%) of the recorded value.
+ * Counts are spread over a fixed set of stripes, the way LongAdder spreads its cells: each
+ * thread hashes to a stripe by a per-thread probe and CASes its bucket there. Only one stripe
+ * exists until two threads collide; a failed CAS then doubles the stripes in use, up to the
+ * number of CPUs, and moves the thread to another one. Memory stays bounded however many
+ * threads come and go. Readers sum all stripes; a snapshot taken while threads are
+ * recording may miss the samples in flight, but never sees a torn count.
+ */
+@ThreadSafe
+public class LatencyRecorder {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;      // 128
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;      // 64
+    private static final int BUCKETS = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    private static final int MAX_STRIPES =
+            Integer.highestOneBit(Math.min(64, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+    // Shared by every recorder, like LongAdder's probe; never zero
+    private static final ThreadLocal<int[]> probe = new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            int h = ThreadLocalRandom.current().nextInt();
+            return new int[]{h == 0 ? 1 : h};
+        }
+    };
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes =
+            new AtomicReferenceArray<AtomicLongArray>(MAX_STRIPES);
+    private final AtomicInteger activeStripes = new AtomicInteger(1);
+    @GuardedBy("this") private long[] lastTotal = new long[BUCKETS];
+
+    /** Records one latency value; negative values are recorded as zero. */
+    public void record(long nanos) {
+        int i = bucketIndex(Math.max(0, nanos));
+        int[] h = probe.get();
+        int n = activeStripes.get();
+        AtomicLongArray counts = stripe(h[0] & (n - 1));
+        long c = counts.get(i);
+        if (!counts.compareAndSet(i, c, c + 1)) {
+            // Contended: spread out, then count it here anyway rather than retry
+            if (n < MAX_STRIPES)
+                activeStripes.compareAndSet(n, n << 1);
+            h[0] ^= h[0] << 13;
+            h[0] ^= h[0] >>> 17;
+            h[0] ^= h[0] << 5;
+            counts.getAndIncrement(i);
+        }
+    }
+
+    private AtomicLongArray stripe(int index) {
+        AtomicLongArray counts = stripes.get(index);
+        if (counts == null) {
+            stripes.compareAndSet(index, null, new AtomicLongArray(BUCKETS));
+            counts = stripes.get(index);
+        }
+        return counts;
+    }
+
+    /** Everything recorded since this recorder was created. */
+    public LatencySnapshot snapshotTotal() {
+        return new LatencySnapshot(merge());
+    }
+
+    /** Everything recorded since the previous call to this method. */
+    public synchronized LatencySnapshot snapshotInterval() {
+        long[] total = merge();
+        long[] interval = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            interval[i] = total[i] - lastTotal[i];
+        lastTotal = total;
+        return new LatencySnapshot(interval);
+    }
+
+    private long[] merge() {
+        long[] total = new long[BUCKETS];
+        for (int s = 0; s < stripes.length(); s++) {
+            AtomicLongArray counts = stripes.get(s);
+            if (counts != null)
+                for (int i = 0; i < BUCKETS; i++)
+                    total[i] += counts.get(i);
+        }
+        return total;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift);              // in [64, 128)
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (sub - SUB_BUCKET_HALF);
+    }
+
+    /** The highest value that falls into the given bucket. */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long sub = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        long next = (sub + 1) << shift;
+        return next <= 0 ? Long.MAX_VALUE : next - 1;
+    }
+}
@@ -0,0 +1,96 @@
+package jcip.examples.g8thread_pool.extend_executor;
+
+import jcip.annotations.*;
+
+/**
+ * LatencySnapshot
+ * <p/>
+ * Immutable summary of a LatencyRecorder histogram, in nanoseconds
+ * <p/>
+ * Percentiles and max report the upper bound of the bucket they fall into.
+ */
+@Immutable
+public class LatencySnapshot {
+    private final long[] buckets;
+    private final long count;
+    private final long mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    LatencySnapshot(long[] buckets) {
+        this.buckets = buckets;
+        long n = 0;
+        double sum = 0;
+        int highest = -1;
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] != 0) {
+                n += buckets[i];
+                sum += (double) buckets[i] * LatencyRecorder.highestValue(i);
+                highest = i;
+            }
+        }
+        this.count = n;
+        this.mean = n == 0 ? 0 : (long) (sum / n);
+        this.p50 = percentile(buckets, n, 50);
+        this.p90 = percentile(buckets, n, 90);
+        this.p99 = percentile(buckets, n, 99);
+        this.p999 = percentile(buckets, n, 99.9);
+        this.max = highest < 0 ? 0 : LatencyRecorder.highestValue(highest);
+    }
+
+    private static long percentile(long[] buckets, long n, double percentile) {
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return LatencyRecorder.highestValue(i);
+        }
+        return 0;
+    }
+
+    /** Any percentile (0..100), not just the ones exported as attributes. */
+    public long valueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile: " + percentile);
+        return percentile(buckets, count, percentile);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public String toString() {
+        return String.format("count=%d mean=%dns p50=%dns p90=%dns p99=%dns p999=%dns max=%dns",
+                count, mean, p50, p90, p99, p999, max);
+    }
+}
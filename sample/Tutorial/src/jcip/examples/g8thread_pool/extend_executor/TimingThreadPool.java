@@ -1,41 +1,92 @@
 package jcip.examples.g8thread_pool.extend_executor;
 
+import java.lang.management.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.*;
 import java.util.logging.*;
+import javax.management.*;
 
 /**
  * TimingThreadPool
  * <p/>
  * Thread pool extended with logging and timing
+ * <p/>
+ * Queue-wait time (submission to beforeExecute) and run time (beforeExecute to afterExecute)
+ * go into separate LatencyRecorder histograms, so the tail is visible instead of a single
+ * average. Everything is measured in beforeExecute and afterExecute; execute(Runnable) queues
+ * the caller's own task, so remove(), getQueue() and shutdownNow() see what was submitted.
+ * Queue wait needs a submission time: submit() uses a FutureTask subclass that carries one,
+ * and a Runnable passed to execute can carry its own by implementing Timestamped. Other bare
+ * Runnables get run time only.
  *
  * @author Brian Goetz and Tim Peierls
  */
-public class TimingThreadPool extends ThreadPoolExecutor {
+public class TimingThreadPool extends ThreadPoolExecutor implements TimingThreadPoolMXBean {
 
     public TimingThreadPool() {
-        super(1, 1, 0L, TimeUnit.SECONDS, null);
+        this(1, 1, 0L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    }
+
+    public TimingThreadPool(int corePoolSize, int maximumPoolSize, long keepAliveTime,
+                            TimeUnit unit, BlockingQueue<Runnable> workQueue) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
     }
 
-    private final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+    // One long[1] per worker thread instead of boxing a Long per task
+    private final ThreadLocal<long[]> startTime = new ThreadLocal<long[]>() {
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
     private final Logger log = Logger.getLogger("TimingThreadPool");
-    private final AtomicLong numTasks = new AtomicLong();
-    private final AtomicLong totalTime = new AtomicLong();
+    private final LatencyRecorder queueWait = new LatencyRecorder();
+    private final LatencyRecorder runTime = new LatencyRecorder();
+
+    /** A task that knows when it was submitted, in System.nanoTime() terms. */
+    public interface Timestamped {
+        long submitTime();
+    }
+
+    private static class TimedFutureTask<V> extends FutureTask<V> implements Timestamped {
+        private final long submitTime = System.nanoTime();
+
+        TimedFutureTask(Callable<V> callable) {
+            super(callable);
+        }
+
+        TimedFutureTask(Runnable runnable, V result) {
+            super(runnable, result);
+        }
+
+        public long submitTime() {
+            return submitTime;
+        }
+    }
+
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new TimedFutureTask<T>(callable);
+    }
+
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new TimedFutureTask<T>(runnable, value);
+    }
 
     protected void beforeExecute(Thread t, Runnable r) {
         super.beforeExecute(t, r);
-        log.fine(String.format("Thread %s: start %s", t, r));
-        startTime.set(System.nanoTime());
+        if (log.isLoggable(Level.FINE))
+            log.fine(String.format("Thread %s: start %s", t, r));
+        long now = System.nanoTime();
+        if (r instanceof Timestamped)
+            queueWait.record(now - ((Timestamped) r).submitTime());
+        startTime.get()[0] = now;
     }
 
     protected void afterExecute(Runnable r, Throwable t) {
         try {
-            long endTime = System.nanoTime();
-            long taskTime = endTime - startTime.get();
-            numTasks.incrementAndGet();
-            totalTime.addAndGet(taskTime);
-            log.fine(String.format("Thread %s: end %s, time=%dns",
-                    t, r, taskTime));
+            long taskTime = System.nanoTime() - startTime.get()[0];
+            runTime.record(taskTime);
+            if (log.isLoggable(Level.FINE))
+                log.fine(String.format("Thread %s: end %s, time=%dns, throwable=%s",
+                        Thread.currentThread(), r, taskTime, t));
         } finally {
             super.afterExecute(r, t);
         }
@@ -43,10 +94,52 @@ public class TimingThreadPool extends ThreadPoolExecutor {
 
     protected void terminated() {
         try {
-            log.info(String.format("Terminated: avg time=%dns",
-                    totalTime.get() / numTasks.get()));
+            log.info(String.format("Terminated: queue wait [%s], run time [%s]",
+                    queueWait.snapshotTotal(), runTime.snapshotTotal()));
         } finally {
             super.terminated();
         }
     }
+
+    public LatencySnapshot getQueueWaitInterval() {
+        return queueWait.snapshotInterval();
+    }
+
+    public LatencySnapshot getRunTimeInterval() {
+        return runTime.snapshotInterval();
+    }
+
+    public LatencySnapshot getQueueWaitTotal() {
+        return queueWait.snapshotTotal();
+    }
+
+    public LatencySnapshot getRunTimeTotal() {
+        return runTime.snapshotTotal();
+    }
+
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("jcip.examples:type=TimingThreadPool,name=" + name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public static void main(String[] args) throws Exception {
+        TimingThreadPool pool = new TimingThreadPool(4, 4, 0L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        ObjectName name = pool.registerMBean("demo");
+        for (int i = 0; i < 1000; i++) {
+            pool.submit(new Runnable() {
+                public void run() {
+                    long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(200);
+                    while (System.nanoTime() < deadline)
+                        Thread.onSpinWait();
+                }
+            });
+        }
+        TimeUnit.SECONDS.sleep(1);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        System.out.println("QueueWaitInterval = " + server.getAttribute(name, "QueueWaitInterval"));
+        System.out.println("RunTimeInterval = " + pool.getRunTimeInterval());
+        pool.shutdown();
+    }
 }
@@ -0,0 +1,19 @@
+package jcip.examples.g8thread_pool.extend_executor;
+
+/**
+ * TimingThreadPoolMXBean
+ * <p/>
+ * JMX view of the TimingThreadPool latency histograms
+ * <p/>
+ * The interval attributes cover the time since they were last read, so a single
+ * monitoring client polling them gets consecutive, non-overlapping windows.
+ */
+public interface TimingThreadPoolMXBean {
+    LatencySnapshot getQueueWaitInterval();
+
+    LatencySnapshot getRunTimeInterval();
+
+    LatencySnapshot getQueueWaitTotal();
+
+    LatencySnapshot getRunTimeTotal();
+}
@@ -0,0 +1,252 @@
+package jcip.examples.g8thread_pool.implicit_coupling;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import jcip.annotations.*;
+
+/**
+ * StarvationDetectingExecutor
+ * <p/>
+ * ExecutorService that detects workers blocking on tasks queued behind them in the same pool
+ * <p/>
+ * When a worker calls get() on a Future from this executor whose task has not started yet, the
+ * task is stuck in the queue that the worker is supposed to drain. With CALLER_RUNS the worker
+ * runs the task inline, the way ForkJoinPool helps with a join; FutureTask guarantees it runs only
+ * once even if a worker dequeues it at the same moment. With FAIL_FAST the worker blocks as usual
+ * unless that leaves every worker blocked while at least one of them waits on a queued task: then
+ * nothing can ever drain the queue, and get() throws ThreadStarvationException instead of hanging.
+ * The worker that completes the picture throws, whatever it waits on itself, so a chain such as
+ * B waiting on A's running task while A waits on a queued one is caught too.
+ * <p/>
+ * The bookkeeping is a ThreadLocal write per task and a few counter updates per blocking get() from
+ * a worker; get() from outside the pool or on a finished task costs nothing extra. Tasks passed to
+ * execute() are tracked the same way, and an exception they throw is rethrown to the worker thread
+ * as a plain ThreadPoolExecutor would, rather than kept in a Future nobody holds.
+ */
+@ThreadSafe
+public class StarvationDetectingExecutor extends AbstractExecutorService {
+    public enum Policy {
+        FAIL_FAST, CALLER_RUNS
+    }
+
+    public static class ThreadStarvationException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        public ThreadStarvationException(String message) {
+            super(message);
+        }
+    }
+
+    private static final ThreadLocal<StarvationDetectingExecutor> currentPool =
+            new ThreadLocal<StarvationDetectingExecutor>();
+
+    private final ExecutorService exec;
+    private final int poolSize;
+    private final Policy policy;
+    private final AtomicInteger blockedWorkers = new AtomicInteger();
+    // Blocked workers whose task had not started when they blocked, and still has not
+    private final AtomicInteger blockedOnQueued = new AtomicInteger();
+    private final ConcurrentMap<Thread, Future<?>> waiting = new ConcurrentHashMap<Thread, Future<?>>();
+
+    /**
+     * @param exec     the pool to wrap; every task must reach it through this executor
+     * @param poolSize the maximum number of worker threads exec will use
+     */
+    public StarvationDetectingExecutor(ExecutorService exec, int poolSize, Policy policy) {
+        if (poolSize < 1)
+            throw new IllegalArgumentException();
+        this.exec = exec;
+        this.poolSize = poolSize;
+        this.policy = policy;
+    }
+
+    public static StarvationDetectingExecutor newFixedThreadPool(int nThreads, Policy policy) {
+        return new StarvationDetectingExecutor(Executors.newFixedThreadPool(nThreads), nThreads, policy);
+    }
+
+    private class TrackedTask<V> extends FutureTask<V> {
+        private volatile boolean started;
+        // Workers blocked on this task while it is queued; -1 once it has started
+        private final AtomicInteger queuedWaiters = new AtomicInteger();
+        private final boolean rethrowFailure;
+
+        TrackedTask(Callable<V> callable) {
+            super(callable);
+            this.rethrowFailure = false;
+        }
+
+        TrackedTask(Runnable runnable, V result, boolean rethrowFailure) {
+            super(runnable, result);
+            this.rethrowFailure = rethrowFailure;
+        }
+
+        public void run() {
+            started = true;
+            int waiters = queuedWaiters.getAndSet(-1);
+            if (waiters > 0)
+                blockedOnQueued.addAndGet(-waiters);
+            StarvationDetectingExecutor previous = currentPool.get();
+            currentPool.set(StarvationDetectingExecutor.this);
+            try {
+                super.run();
+            } finally {
+                currentPool.set(previous);
+            }
+            if (rethrowFailure && state() == State.FAILED)
+                throw launderThrowable(exceptionNow());
+        }
+
+        public V get() throws InterruptedException, ExecutionException {
+            if (!isDone() && onWorker())
+                return awaitFromWorker();
+            return super.get();
+        }
+
+        public V get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!isDone() && onWorker() && !started && policy == Policy.CALLER_RUNS)
+                run();
+            return super.get(timeout, unit);
+        }
+
+        private boolean onWorker() {
+            return currentPool.get() == StarvationDetectingExecutor.this;
+        }
+
+        private V awaitFromWorker() throws InterruptedException, ExecutionException {
+            if (!started && policy == Policy.CALLER_RUNS) {
+                run(); // No-op if a worker got to it first
+                return super.get();
+            }
+            Thread self = Thread.currentThread();
+            waiting.put(self, this);
+            boolean onQueued = addQueuedWaiter(1);
+            try {
+                // Count before checking, so whichever worker blocks last sees every other one
+                if (blockedWorkers.incrementAndGet() >= poolSize && blockedOnQueued.get() > 0)
+                    throw new ThreadStarvationException(String.format(
+                            "all %d workers of %s are blocked, some on tasks still in its queue: %s",
+                            poolSize, exec, waiting));
+                return super.get();
+            } finally {
+                blockedWorkers.decrementAndGet();
+                if (onQueued)
+                    addQueuedWaiter(-1);
+                waiting.remove(self);
+            }
+        }
+
+        /** Adjusts the queued waiters unless the task has started; false if it has. */
+        private boolean addQueuedWaiter(int delta) {
+            for (int n; (n = queuedWaiters.get()) >= 0; ) {
+                if (queuedWaiters.compareAndSet(n, n + delta)) {
+                    blockedOnQueued.addAndGet(delta);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static RuntimeException launderThrowable(Throwable t) {
+        if (t instanceof RuntimeException)
+            return (RuntimeException) t;
+        else if (t instanceof Error)
+            throw (Error) t;
+        else
+            return new IllegalStateException("Not unchecked", t);
+    }
+
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new TrackedTask<T>(callable);
+    }
+
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new TrackedTask<T>(runnable, value, false);
+    }
+
+    public void execute(Runnable command) {
+        exec.execute(command instanceof TrackedTask ? command : new TrackedTask<Void>(command, null, true));
+    }
+
+    /** Worker threads currently blocked in get(), and the Future each one is waiting for. */
+    public Map<Thread, Future<?>> getBlockedWorkers() {
+        return new HashMap<Thread, Future<?>>(waiting);
+    }
+
+    public void shutdown() {
+        exec.shutdown();
+    }
+
+    public List<Runnable> shutdownNow() {
+        return exec.shutdownNow();
+    }
+
+    public boolean isShutdown() {
+        return exec.isShutdown();
+    }
+
+    public boolean isTerminated() {
+        return exec.isTerminated();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return exec.awaitTermination(timeout, unit);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (Policy policy : Policy.values()) {
+            ThreadDeadlock deadlock = new ThreadDeadlock();
+            deadlock.exec = newFixedThreadPool(1, policy);
+            try {
+                String page = deadlock.exec.submit(deadlock.new RenderPageTask()).get(5, TimeUnit.SECONDS);
+                System.out.println(policy + ": rendered \"" + page + "\"");
+            } catch (ExecutionException e) {
+                System.out.println(policy + ": " + e.getCause());
+            } finally {
+                deadlock.exec.shutdown();
+            }
+            chainedStarvation(policy);
+        }
+    }
+
+    /**
+     * Two workers deadlocked through a chain: A runs t1 and waits for x, which is queued; B then
+     * runs t2 and waits for t1, which has started. B blocks last, on a running task, and must
+     * still see that A's wait can never be satisfied.
+     */
+    static void chainedStarvation(Policy policy) throws Exception {
+        final StarvationDetectingExecutor exec = newFixedThreadPool(2, policy);
+        final CountDownLatch t2Running = new CountDownLatch(1);
+        final Future<String> t1 = exec.submit(new Callable<String>() {
+            public String call() throws Exception {
+                t2Running.await();
+                Future<String> x = exec.submit(new Callable<String>() {
+                    public String call() {
+                        return "x";
+                    }
+                });
+                return "t1(" + x.get() + ")";
+            }
+        });
+        Future<String> t2 = exec.submit(new Callable<String>() {
+            public String call() throws Exception {
+                t2Running.countDown();
+                while (exec.getBlockedWorkers().isEmpty() && !t1.isDone())
+                    Thread.sleep(1);
+                return "t2(" + t1.get() + ")";
+            }
+        });
+        try {
+            System.out.println(policy + ", chained: " + t2.get(5, TimeUnit.SECONDS));
+        } catch (ExecutionException e) {
+            System.out.println(policy + ", chained: " + e.getCause());
+        } catch (TimeoutException e) {
+            System.out.println(policy + ", chained: HANG undetected; blocked=" + exec.getBlockedWorkers().size());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package tutorial.essential.concurrency.high_level;
+
+import java.util.Arrays;
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.SynchronousQueue;
+
+import tutorial.essential.concurrency.GuardedBlocks;
+
+/**
+ * Compares handoff primitives between one producer and one consumer thread:
+ *   - GuardedBlocks.Drop (synchronized + wait/notifyAll)
+ *   - SynchronousQueue
+ *   - Exchanger
+ *   - HandoffSlot (VarHandle CAS, spin then park)
+ *   - SpscBatchChannel (ring buffer, batched drain)
+ *
+ * Throughput: the producer pushes MESSAGES messages as fast as it can, the consumer takes them.
+ * Latency: two channels of the same kind bounce one message back and forth (ping-pong), and half of
+ * each round trip is reported as the handoff latency.
+ */
+public class HandoffBenchmark {
+    private static final int MESSAGES = 200_000;
+    private static final int ROUND_TRIPS = 20_000;
+    private static final int WARMUP = 2;
+    private static final String MESSAGE = "Mares eat oats";
+
+    /** The put/take pair every contender is adapted to. */
+    interface Channel {
+        void put(String message) throws InterruptedException;
+
+        String take() throws InterruptedException;
+    }
+
+    interface ChannelFactory {
+        Channel create();
+    }
+
+    static ChannelFactory drop() {
+        return () -> {
+            GuardedBlocks.Drop drop = new GuardedBlocks.Drop();
+            return new Channel() {
+                public void put(String message) {
+                    drop.put(message);
+                }
+
+                public String take() {
+                    return drop.take();
+                }
+            };
+        };
+    }
+
+    static ChannelFactory synchronousQueue() {
+        return () -> {
+            SynchronousQueue<String> queue = new SynchronousQueue<>();
+            return new Channel() {
+                public void put(String message) throws InterruptedException {
+                    queue.put(message);
+                }
+
+                public String take() throws InterruptedException {
+                    return queue.take();
+                }
+            };
+        };
+    }
+
+    static ChannelFactory exchanger() {
+        return () -> {
+            Exchanger<String> exchanger = new Exchanger<>();
+            return new Channel() {
+                public void put(String message) throws InterruptedException {
+                    exchanger.exchange(message);
+                }
+
+                public String take() throws InterruptedException {
+                    return exchanger.exchange(null);
+                }
+            };
+        };
+    }
+
+    static ChannelFactory handoffSlot() {
+        return () -> {
+            HandoffSlot<String> slot = new HandoffSlot<>();
+            return new Channel() {
+                public void put(String message) throws InterruptedException {
+                    slot.put(message);
+                }
+
+                public String take() throws InterruptedException {
+                    return slot.take();
+                }
+            };
+        };
+    }
+
+    static ChannelFactory spscChannel() {
+        return () -> {
+            SpscBatchChannel<String> channel = new SpscBatchChannel<>(1024);
+            return new Channel() {
+                public void put(String message) throws InterruptedException {
+                    channel.put(message);
+                }
+
+                public String take() throws InterruptedException {
+                    return channel.take();
+                }
+            };
+        };
+    }
+
+    static long throughput(Channel channel) throws InterruptedException {
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < MESSAGES; i++)
+                    channel.put(MESSAGE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        long start = System.nanoTime();
+        producer.start();
+        for (int i = 0; i < MESSAGES; i++)
+            channel.take();
+        producer.join();
+        return System.nanoTime() - start;
+    }
+
+    /** The batch consumer: same producer, but the consumer drains up to 256 messages per wakeup. */
+    static long batchThroughput() throws InterruptedException {
+        SpscBatchChannel<String> channel = new SpscBatchChannel<>(1024);
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < MESSAGES; i++)
+                    channel.put(MESSAGE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        long start = System.nanoTime();
+        producer.start();
+        int received = 0;
+        while (received < MESSAGES)
+            received += channel.takeBatch(m -> { }, 256);
+        producer.join();
+        return System.nanoTime() - start;
+    }
+
+    static long medianHandoffLatency(ChannelFactory factory) throws InterruptedException {
+        Channel ping = factory.create();
+        Channel pong = factory.create();
+        Thread echo = new Thread(() -> {
+            try {
+                for (int i = 0; i < ROUND_TRIPS; i++)
+                    pong.put(ping.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        echo.start();
+        long[] samples = new long[ROUND_TRIPS];
+        for (int i = 0; i < ROUND_TRIPS; i++) {
+            long start = System.nanoTime();
+            ping.put(MESSAGE);
+            pong.take();
+            samples[i] = System.nanoTime() - start;
+        }
+        echo.join();
+        Arrays.sort(samples);
+        return samples[ROUND_TRIPS / 2] / 2;
+    }
+
+    static void run(String name, ChannelFactory factory) throws InterruptedException {
+        long nanos = 0, latency = 0;
+        for (int i = 0; i <= WARMUP; i++) {
+            nanos = throughput(factory.create());
+            latency = medianHandoffLatency(factory);
+        }
+        System.out.format("%-20s %,12d msgs/s   median handoff %,8d ns%n",
+                name, MESSAGES * 1_000_000_000L / nanos, latency);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        run("Drop", drop());
+        run("SynchronousQueue", synchronousQueue());
+        run("Exchanger", exchanger());
+        run("HandoffSlot", handoffSlot());
+        run("SpscBatchChannel", spscChannel());
+        long nanos = 0;
+        for (int i = 0; i <= WARMUP; i++)
+            nanos = batchThroughput();
+        System.out.format("%-20s %,12d msgs/s%n", "SpscBatchChannel x256", MESSAGES * 1_000_000_000L / nanos);
+    }
+}
@@ -0,0 +1,97 @@
+package tutorial.essential.concurrency.high_level;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free version of GuardedBlocks.Drop: a slot that holds at most one message.
+ *
+ * Drop guards its slot with the object's monitor, so every put and take acquires a lock, and
+ * notifyAll() wakes every waiting thread just so one of them can make progress. It also
+ * swallows InterruptedException, so a blocked producer or consumer can never be cancelled.
+ *
+ * Here the slot is a single reference updated with a VarHandle compareAndSet:
+ *   1. put() succeeds by CASing the slot from null to the message, take() by CASing it back to null.
+ *   2. A thread that finds the slot in the wrong state spins briefly (Thread.onSpinWait) on a
+ *      multiprocessor, because in a busy handoff the other side usually arrives within a few
+ *      hundred nanoseconds.
+ *   3. After that it publishes itself as the waiter, re-checks the slot and parks with LockSupport.
+ *      The other side unparks exactly that thread after its own CAS. Publishing the waiter before
+ *      the re-check, and the CAS before reading the waiter, means a wakeup is never lost.
+ *   4. Interrupts are reported as InterruptedException instead of being ignored.
+ *
+ * There is one waiter field per side, so the slot is meant for one producer thread and one
+ * consumer thread, which is how Drop is used in ProducerConsumerExample.
+ */
+public class HandoffSlot<E> {
+    // Spinning only pays off when the other side can run at the same time
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+    private static final VarHandle ITEM;
+
+    static {
+        try {
+            ITEM = MethodHandles.lookup().findVarHandle(HandoffSlot.class, "item", Object.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile Object item;
+    private volatile Thread putWaiter;
+    private volatile Thread takeWaiter;
+
+    public boolean tryPut(E message) {
+        if (message == null)
+            throw new NullPointerException();
+        if (!ITEM.compareAndSet(this, null, message))
+            return false;
+        LockSupport.unpark(takeWaiter);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E tryTake() {
+        Object current = item;
+        if (current == null || !ITEM.compareAndSet(this, current, null))
+            return null;
+        LockSupport.unpark(putWaiter);
+        return (E) current;
+    }
+
+    public void put(E message) throws InterruptedException {
+        int spins = SPINS;
+        while (!tryPut(message)) {
+            if (spins > 0) {
+                spins--;
+                Thread.onSpinWait();
+                continue;
+            }
+            putWaiter = Thread.currentThread();
+            if (item != null)
+                LockSupport.park(this);
+            putWaiter = null;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    public E take() throws InterruptedException {
+        int spins = SPINS;
+        E message;
+        while ((message = tryTake()) == null) {
+            if (spins > 0) {
+                spins--;
+                Thread.onSpinWait();
+                continue;
+            }
+            takeWaiter = Thread.currentThread();
+            if (item == null)
+                LockSupport.park(this);
+            takeWaiter = null;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+        return message;
+    }
+}
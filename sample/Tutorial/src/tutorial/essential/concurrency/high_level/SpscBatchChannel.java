@@ -0,0 +1,174 @@
+package tutorial.essential.concurrency.high_level;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A bounded single-producer single-consumer channel that moves messages in batches.
+ *
+ * HandoffSlot pays for a CAS and possibly a wakeup on every message. When the producer runs
+ * ahead of the consumer, a ring buffer lets both sides work on their own end without any CAS:
+ *   1. Only the producer writes tail and only the consumer writes head, so plain array stores
+ *      followed by one ordered write of the index are enough to publish.
+ *   2. Each side keeps a cached copy of the other side's index and re-reads the shared one only
+ *      when the cache says the buffer looks full (producer) or empty (consumer).
+ *   3. drainTo() hands over everything available, up to a limit, and publishes the new head once,
+ *      so the cost of the index write and of any wakeup is shared by the whole batch.
+ *   4. Blocking put() and take() spin briefly and then park, using the same waiter protocol as HandoffSlot.
+ *
+ * Exactly one thread may call the producer methods (offer, put) and exactly one thread the consumer
+ * methods (poll, take, drainTo).
+ */
+public class SpscBatchChannel<E> {
+    // Spinning only pays off when the other side can run at the same time
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(SpscBatchChannel.class, "head", long.class);
+            TAIL = lookup.findVarHandle(SpscBatchChannel.class, "tail", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Object[] buffer;
+    private final int mask;
+
+    private volatile long head;          // next slot to read, written by the consumer
+    private long tailCache;              // consumer's view of tail
+    private volatile long tail;          // next slot to write, written by the producer
+    private long headCache;              // producer's view of head
+    private volatile Thread producerWaiter;
+    private volatile Thread consumerWaiter;
+
+    public SpscBatchChannel(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30))
+            throw new IllegalArgumentException("capacity: " + capacity);
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        buffer = new Object[Math.max(size, 1)];
+        mask = buffer.length - 1;
+    }
+
+    public boolean offer(E message) {
+        if (message == null)
+            throw new NullPointerException();
+        long t = tail;
+        if (t - headCache >= buffer.length) {
+            headCache = head;
+            if (t - headCache >= buffer.length)
+                return false;
+        }
+        buffer[(int) t & mask] = message;
+        TAIL.setVolatile(this, t + 1);   // Full fence: orders the publish before reading the waiter
+        LockSupport.unpark(consumerWaiter);
+        return true;
+    }
+
+    public void put(E message) throws InterruptedException {
+        int spins = SPINS;
+        while (!offer(message)) {
+            if (spins > 0) {
+                spins--;
+                Thread.onSpinWait();
+                continue;
+            }
+            producerWaiter = Thread.currentThread();
+            if (tail - head >= buffer.length)
+                LockSupport.park(this);
+            producerWaiter = null;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    public E poll() {
+        long h = head;
+        if (h >= tailCache) {
+            tailCache = tail;
+            if (h >= tailCache)
+                return null;
+        }
+        int i = (int) h & mask;
+        @SuppressWarnings("unchecked")
+        E message = (E) buffer[i];
+        buffer[i] = null;
+        HEAD.setVolatile(this, h + 1);
+        LockSupport.unpark(producerWaiter);
+        return message;
+    }
+
+    public E take() throws InterruptedException {
+        awaitNotEmpty();
+        return poll();
+    }
+
+    /**
+     * Passes up to maxMessages available messages to sink without blocking and returns how many
+     * were passed. The head index is published, and the producer woken, once per call. If sink
+     * throws, the messages up to and including the one it threw on are consumed, and the rest stay.
+     *
+     * @throws IllegalArgumentException if maxMessages is negative
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(Consumer<? super E> sink, int maxMessages) {
+        if (maxMessages < 0)
+            throw new IllegalArgumentException("maxMessages: " + maxMessages);
+        long h = head;
+        long available = tailCache - h;
+        if (available <= 0) {
+            tailCache = tail;
+            available = tailCache - h;
+            if (available <= 0)
+                return 0;
+        }
+        int n = (int) Math.min(available, maxMessages);
+        int k = 0;
+        try {
+            while (k < n) {
+                int i = (int) (h + k) & mask;
+                E message = (E) buffer[i];
+                buffer[i] = null;
+                k++;
+                sink.accept(message);
+            }
+        } finally {
+            // Retire every slot already cleared, even if sink threw
+            HEAD.setVolatile(this, h + k);
+            LockSupport.unpark(producerWaiter);
+        }
+        return n;
+    }
+
+    /** Blocks until at least one message is available, then drains like drainTo. */
+    public int takeBatch(Consumer<? super E> sink, int maxMessages) throws InterruptedException {
+        awaitNotEmpty();
+        return drainTo(sink, maxMessages);
+    }
+
+    private void awaitNotEmpty() throws InterruptedException {
+        int spins = SPINS;
+        while (head >= tail) {
+            if (spins > 0) {
+                spins--;
+                Thread.onSpinWait();
+                continue;
+            }
+            consumerWaiter = Thread.currentThread();
+            if (head >= tail)
+                LockSupport.park(this);
+            consumerWaiter = null;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+}